@@ -0,0 +1,169 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/*
+ *  The measured operations of the benchmarks, on a script of the ScriptGenerator with a fixed seed,
+ *  so numbers of two versions are comparable on the same machine.
+ *
+ *  JMH doesn't take benchmarks in the default package and the classes of the editor are all there,
+ *  so the benchmarks (package benchmarks) only get the operations from here, through java.util.concurrent.Callable.
+ *  create() gives the operation first, then, if the case needs it, what has to run before every operation without being measured.
+ *  An operation returns what it made, JMH consumes it so that the work can't be thrown away by the JIT.
+ *  Every call of create() makes its own parser, document, canvas and image, nothing is shared between benchmarks.
+ */
+public class BenchmarkCases {
+
+	public static final int SCREEN_LINES = 40;
+	private static final int IMAGE_WIDTH = 1200, IMAGE_HEIGHT = 800;
+
+	public static List<Callable<Object>> create(String name, int size) {
+		List<String> text = new ScriptGenerator(42).generate(size);
+		if (name.equals("analysis"))
+			return analysis(text);
+		if (name.equals("tree"))
+			return tree(text);
+		if (name.equals("arguments"))
+			return arguments(text);
+		if (name.equals("highlighting"))
+			return highlighting(text);
+		if (name.equals("layout"))
+			return layout(text);
+		if (name.equals("canvas"))
+			return canvas(text);
+		throw new IllegalArgumentException("No benchmark case '" + name + "'");
+	}
+
+	// Whole analysis of an opened file, without the layout
+	private static List<Callable<Object>> analysis(List<String> text) {
+		final LineBuffer buffer = new LineBuffer(text);
+		final Parser parser = new Parser();
+		parser.setLayoutNeeded(false);
+		return operation(new Callable<Object>() {
+			public Object call() {
+				parser.setText(buffer);
+				return parser.getPool();
+			}
+		});
+	}
+
+	// A jump edited back and forth: the tree is built again, the lines are kept
+	private static List<Callable<Object>> tree(List<String> text) {
+		final Parser parser = new Parser();
+		parser.setLayoutNeeded(false);
+		parser.setText(new LineBuffer(text));
+		final int jump = findLine(text, "* goto ");
+		if (jump == -1)
+			throw new IllegalStateException("The script has no jump to edit");
+		final List<String> edited = new ArrayList<String>(text);
+		final String[] versions = {text.get(jump), "* goto BEGINNING"};
+		return operation(new Callable<Object>() {
+			int version;
+
+			public Object call() {
+				version = 1 - version;
+				edited.set(jump, versions[version]);
+				parser.updateText(edited, jump + 1, jump + 1, jump + 1);
+				return parser.getPool();
+			}
+		});
+	}
+
+	// Arguments of all commands of the script, the way the Parser checks them
+	private static List<Callable<Object>> arguments(List<String> text) {
+		final List<Command> commands = new ArrayList<Command>();
+		final List<String> arguments = new ArrayList<String>();
+		for (String line : text) {
+			if (!line.startsWith("* "))
+				continue;
+			int space = line.indexOf(' ', 2);
+			Command command = Syntax.getInstance().findCommand(space == -1 ? line.substring(2) : line.substring(2, space));
+			if (command != null && space != -1) {
+				commands.add(command);
+				arguments.add(line.substring(space + 1));
+			}
+		}
+		return operation(new Callable<Object>() {
+			public Object call() {
+				int accepted = 0;
+				for (int i = 0; i < commands.size(); ++i)
+					if (commands.get(i).accepts(arguments.get(i)))
+						++accepted;
+				return accepted;
+			}
+		});
+	}
+
+	/*
+	 *  Scrolling through the editor a screen at a time, every screen highlights the lines it brings into view.
+	 *  Scrolling to the next screen is prepared before the operation, when the end is reached the document is loaded again
+	 */
+	private static List<Callable<Object>> highlighting(final List<String> text) {
+		final String joined = new LineBuffer(text).toString();
+		final PscriptDocument[] document = new PscriptDocument[1];
+		final int[] first = new int[1];
+		Callable<Object> scroll = new Callable<Object>() {
+			public Object call() {
+				document[0].setVisibleLines(first[0], first[0] + SCREEN_LINES);
+				return document[0];
+			}
+		};
+		Callable<Object> nextScreen = new Callable<Object>() {
+			public Object call() {
+				if (document[0] == null || first[0] + 2 * SCREEN_LINES >= text.size()) {
+					document[0] = PscriptDocument.load(joined);
+					document[0].setVisibleLines(0, SCREEN_LINES);
+					first[0] = 0;
+				}
+				first[0] += SCREEN_LINES;
+				return null;
+			}
+		};
+		return Arrays.asList(scroll, nextScreen);
+	}
+
+	// Layout of the graph of the script, when the file was opened
+	private static List<Callable<Object>> layout(List<String> text) {
+		Parser parser = new Parser();
+		parser.setText(new LineBuffer(text));
+		final List<Node> pool = parser.getPool();
+		return operation(new Callable<Object>() {
+			public Object call() {
+				return new DialogueLayout(pool);
+			}
+		});
+	}
+
+	// The canvas painting the graph, with another layout every time, so the scene is built again
+	private static List<Callable<Object>> canvas(List<String> text) {
+		Parser parser = new Parser();
+		parser.setText(new LineBuffer(text));
+		List<Node> pool = parser.getPool();
+		final DialogueLayout[] layouts = {new DialogueLayout(pool), new DialogueLayout(pool)};
+		final Canvas canvas = new Canvas();
+		final BufferedImage image = new BufferedImage(IMAGE_WIDTH, IMAGE_HEIGHT, BufferedImage.TYPE_INT_RGB);
+		return operation(new Callable<Object>() {
+			int next;
+
+			public Object call() {
+				next = 1 - next;
+				canvas.setData(layouts[next]);
+				canvas.paintTo(image);
+				return image;
+			}
+		});
+	}
+
+	private static List<Callable<Object>> operation(Callable<Object> operation) {
+		return Arrays.asList(operation);
+	}
+
+	private static int findLine(List<String> text, String prefix) {
+		for (int i = text.size() / 2; i < text.size(); ++i)
+			if (text.get(i).startsWith(prefix))
+				return i;
+		return -1;
+	}
+}
@@ -0,0 +1,131 @@
+package benchmarks;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ *  Hot paths of the editor on generated scripts of 1000, 10000 and 100000 lines:
+ *  the whole analysis of a file, rebuilding the tree after a jump was edited, checking arguments of commands,
+ *  highlighting the lines scrolled into view, laying out the graph and painting it into an image.
+ *
+ *  Sample time mode, so the results have the mean and the percentiles of one operation.
+ *  The operations are made by BenchmarkCases, see there why they come as Callables.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class ScriptBenchmarks {
+
+	// One case on a script of the given size, made once for the trial
+	@State(Scope.Thread)
+	public abstract static class CaseState {
+
+		@Param({"1000", "10000", "100000"})
+		public int size;
+
+		Callable<Object> operation;
+		Callable<Object> preparation;
+
+		protected abstract String name();
+
+		@Setup(Level.Trial)
+		public void create() throws Exception {
+			List<Callable<Object>> callables = createCase(name(), size);
+			operation = callables.get(0);
+			preparation = callables.size() > 1 ? callables.get(1) : null;
+		}
+	}
+
+	public static class Analysis extends CaseState {
+		protected String name() {
+			return "analysis";
+		}
+	}
+
+	public static class Tree extends CaseState {
+		protected String name() {
+			return "tree";
+		}
+	}
+
+	public static class Arguments extends CaseState {
+		protected String name() {
+			return "arguments";
+		}
+	}
+
+	// The next screen is scrolled to before every operation, outside of the measured time
+	public static class Highlighting extends CaseState {
+		protected String name() {
+			return "highlighting";
+		}
+
+		@Setup(Level.Invocation)
+		public void nextScreen() throws Exception {
+			preparation.call();
+		}
+	}
+
+	public static class Layout extends CaseState {
+		protected String name() {
+			return "layout";
+		}
+	}
+
+	public static class Canvas extends CaseState {
+		protected String name() {
+			return "canvas";
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<Callable<Object>> createCase(String name, int size) throws Exception {
+		return (List<Callable<Object>>) Class.forName("BenchmarkCases").getMethod("create", String.class, int.class).invoke(null, name, size);
+	}
+
+	@Benchmark
+	public Object analysis(Analysis state) throws Exception {
+		return state.operation.call();
+	}
+
+	@Benchmark
+	public Object tree(Tree state) throws Exception {
+		return state.operation.call();
+	}
+
+	@Benchmark
+	public Object arguments(Arguments state) throws Exception {
+		return state.operation.call();
+	}
+
+	@Benchmark
+	public Object highlighting(Highlighting state) throws Exception {
+		return state.operation.call();
+	}
+
+	@Benchmark
+	public Object layout(Layout state) throws Exception {
+		return state.operation.call();
+	}
+
+	@Benchmark
+	public Object canvas(Canvas state) throws Exception {
+		return state.operation.call();
+	}
+}
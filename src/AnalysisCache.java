@@ -0,0 +1,307 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+ *  Results of earlier analyses saved on the drive, so a script that didn't change since it was checked last time
+ *  opens without running the Parser. An entry is found by the hash of the text together with the versions
+ *  of the checks and of the commands, so a new version of the editor never reuses results of an older one.
+ *
+ *  One file per entry, gzipped: errors, notes, log, symbols, the nodes with their jumps and the layout, if there was one.
+ *  The text itself isn't saved, the caller has read it already. Entries that weren't used for maxAge
+ *  are deleted, and the least recently used ones go when the cache grows over maxSize.
+ *  Reading or writing an entry never fails, a broken entry is just a miss.
+ *  Different entries can be read and written by several threads at once.
+ */
+public class AnalysisCache {
+
+	// Has to be changed whenever the checks of the Parser or the format of the entries change
+	public static final int VERSION = 3;
+
+	private static final int MAGIC = 0x44504331; // DPC1
+	private static final String SUFFIX = ".bin";
+
+	private final File directory;
+	private final long maxSize;
+	private final long maxAge;
+
+	public AnalysisCache(File directory, long maxSize, long maxAge) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+		this.maxAge = maxAge;
+	}
+
+	// ~/.deeplie/cache, up to 64 MB, entries unused for 30 days are dropped
+	public static AnalysisCache getDefault() {
+		return new AnalysisCache(new File(System.getProperty("user.home"), ".deeplie" + File.separator + "cache"), 64L << 20, 30L * 24 * 60 * 60 * 1000);
+	}
+
+	// Name of the entry for the text
+	public String key(LineBuffer text) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((VERSION + " " + Syntax.getInstance().getVersion() + "\n").getBytes(StandardCharsets.UTF_8));
+			digest.update(text.toString().getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest())
+				hex.append(String.format("%02x", b));
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every Java has SHA-256
+		}
+	}
+
+	/*
+	 *  Saved result for the text, or null if there's none. If layoutNeeded, an entry saved without a layout
+	 *  isn't good enough, otherwise the layout isn't read at all and the result gets an empty one.
+	 */
+	public AnalysisResult get(String key, LineBuffer text, boolean layoutNeeded) {
+		File file = new File(directory, key + SUFFIX);
+		if (!file.isFile())
+			return null;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(key))
+				return null;
+			AnalysisResult result = read(in, text, layoutNeeded);
+			if (result != null)
+				file.setLastModified(System.currentTimeMillis()); // used recently, evicted last
+			return result;
+		}
+		catch (IOException | RuntimeException e) {
+			file.delete();
+			return null;
+		}
+	}
+
+	public void put(String key, AnalysisResult result) {
+		File temporary = null;
+		try {
+			Files.createDirectories(directory.toPath());
+			// Written under another name first, readers never see a half-written entry
+			temporary = File.createTempFile(key, ".tmp", directory);
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(temporary))))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(key);
+				write(out, result);
+			}
+			Files.move(temporary.toPath(), new File(directory, key + SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			// Nothing is lost, the file will be analysed again next time
+			if (temporary != null)
+				temporary.delete();
+		}
+	}
+
+	// Deletes entries that weren't used for maxAge, then the least recently used ones until the cache fits into maxSize
+	public void evict() {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		final long[] used = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; ++i) {
+			used[i] = files[i].lastModified();
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(used[b], used[a]); // the most recently used first
+			}
+		});
+
+		long now = System.currentTimeMillis();
+		long size = 0;
+		for (int i : order) {
+			File file = files[i];
+			if (!file.getName().endsWith(SUFFIX)) {
+				// Left by a writer that crashed, unless it's being written right now
+				if (now - used[i] > 24 * 60 * 60 * 1000)
+					file.delete();
+				continue;
+			}
+			size += file.length();
+			if (size > maxSize || now - used[i] > maxAge)
+				file.delete();
+		}
+	}
+
+	private static void write(DataOutputStream out, AnalysisResult result) throws IOException {
+		out.writeInt(result.Errors.getLineCount());
+		for (int lineNumber : result.Errors.getLines()) {
+			out.writeInt(lineNumber);
+			List<Diagnostic> diagnostics = result.Errors.get(lineNumber);
+			out.writeInt(diagnostics.size());
+			for (Diagnostic diagnostic : diagnostics) {
+				writeString(out, diagnostic.getRuleId());
+				writeString(out, diagnostic.getSeverity());
+				out.writeInt(diagnostic.getStartColumn());
+				out.writeInt(diagnostic.getEndColumn());
+				writeString(out, diagnostic.getMessage());
+				out.writeBoolean(diagnostic.getHint() != null);
+				if (diagnostic.getHint() != null)
+					writeString(out, diagnostic.getHint());
+			}
+		}
+		out.writeInt(result.Notes.size());
+		for (int lineNumber : result.Notes.keySet()) {
+			out.writeInt(lineNumber);
+			writeString(out, result.Notes.get(lineNumber));
+		}
+		writeStrings(out, result.Log);
+
+		ScriptSymbols symbols = result.getSymbols();
+		out.writeInt(symbols.getLabels().size());
+		for (String label : symbols.getLabels()) {
+			writeString(out, label);
+			out.writeInt(symbols.getLabelLine(label));
+		}
+		writeStrings(out, symbols.getQuestIds());
+		writeStrings(out, symbols.getObjectives());
+		writeStrings(out, symbols.getAliases());
+		out.writeInt(symbols.getRunscripts().size());
+		for (ScriptSymbols.Runscript runscript : symbols.getRunscripts()) {
+			out.writeInt(runscript.line);
+			writeString(out, runscript.path);
+			out.writeBoolean(runscript.label != null);
+			if (runscript.label != null)
+				writeString(out, runscript.label);
+		}
+
+		// Nodes by their index in the pool, jumps and trees as indices
+		List<Node> pool = result.getPool();
+		Map<Node, Integer> indices = new HashMap<Node, Integer>(pool.size() * 2);
+		for (int i = 0; i < pool.size(); ++i)
+			indices.put(pool.get(i), i);
+		out.writeInt(pool.size());
+		for (Node node : pool) {
+			writeString(out, node.getLabel());
+			out.writeInt(node.getFirstLine());
+			out.writeInt(node.getLastLine());
+		}
+		for (Node node : pool) {
+			out.writeInt(node.getChildren().size());
+			for (Node child : node.getChildren())
+				out.writeInt(indices.get(child));
+		}
+		out.writeInt(result.getTrees().size());
+		for (Node tree : result.getTrees())
+			out.writeInt(indices.get(tree));
+
+		DialogueLayout layout = result.getLayout();
+		boolean hasLayout = layout.getNodeCount() == pool.size();
+		out.writeBoolean(hasLayout);
+		if (hasLayout)
+			layout.write(out);
+	}
+
+	private static AnalysisResult read(DataInputStream in, LineBuffer text, boolean layoutNeeded) throws IOException {
+		TreeMap<Integer, List<Diagnostic>> errors = new TreeMap<Integer, List<Diagnostic>>();
+		for (int i = in.readInt(); i > 0; --i) {
+			int lineNumber = in.readInt();
+			List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+			for (int j = in.readInt(); j > 0; --j) {
+				String ruleId = readString(in);
+				String severity = readString(in);
+				int startColumn = in.readInt();
+				int endColumn = in.readInt();
+				String message = readString(in);
+				diagnostics.add(new Diagnostic(ruleId, severity, lineNumber, startColumn, endColumn, message, in.readBoolean() ? readString(in) : null));
+			}
+			errors.put(lineNumber, diagnostics);
+		}
+		TreeMap<Integer, String> notes = new TreeMap<Integer, String>();
+		for (int i = in.readInt(); i > 0; --i)
+			notes.put(in.readInt(), readString(in));
+		List<String> log = readStrings(in, new ArrayList<String>());
+
+		HashMap<String, Integer> labels = new HashMap<String, Integer>();
+		for (int i = in.readInt(); i > 0; --i)
+			labels.put(readString(in), in.readInt());
+		Set<String> questIds = readStrings(in, new LinkedHashSet<String>());
+		Set<String> objectives = readStrings(in, new LinkedHashSet<String>());
+		Set<String> aliases = readStrings(in, new LinkedHashSet<String>());
+		List<ScriptSymbols.Runscript> runscripts = new ArrayList<ScriptSymbols.Runscript>();
+		for (int i = in.readInt(); i > 0; --i) {
+			int line = in.readInt();
+			String path = readString(in);
+			runscripts.add(new ScriptSymbols.Runscript(line, path, in.readBoolean() ? readString(in) : null));
+		}
+		ScriptSymbols symbols = new ScriptSymbols(labels, questIds, objectives, aliases, runscripts);
+
+		// Fathers are linked in the same order as the parser did it, children of the first node first
+		int count = in.readInt();
+		List<Node> pool = new ArrayList<Node>(count);
+		for (int i = 0; i < count; ++i)
+			pool.add(new Node(readString(in), in.readInt(), in.readInt()));
+		for (Node node : pool)
+			for (int i = in.readInt(); i > 0; --i)
+				node.link(pool.get(in.readInt()));
+		List<Node> trees = new ArrayList<Node>();
+		for (int i = in.readInt(); i > 0; --i)
+			trees.add(pool.get(in.readInt()));
+
+		DialogueLayout layout = null;
+		if (layoutNeeded) {
+			if (!in.readBoolean())
+				return null;
+			layout = DialogueLayout.read(pool, in);
+		}
+		else
+			layout = new DialogueLayout(new ArrayList<Node>());
+
+		return new AnalysisResult(errors, notes, log, text, trees, pool, layout, symbols);
+	}
+
+	// Strings are saved as UTF-8 with their length, writeUTF() can't take more than 64 KB
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+		out.writeInt(strings.size());
+		for (String s : strings)
+			writeString(out, s);
+	}
+
+	private static <C extends Collection<String>> C readStrings(DataInputStream in, C strings) throws IOException {
+		for (int i = in.readInt(); i > 0; --i)
+			strings.add(readString(in));
+		return strings;
+	}
+}
@@ -0,0 +1,87 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ *  Results of one analysis run as they are shown by the UI. The parser keeps working on its own
+ *  maps in the background, so the UI only ever sees complete results of a finished run.
+ *  Errors of runscript commands found against the other scripts of the project are kept apart, see withProjectErrors().
+ */
+public class AnalysisResult {
+
+	public final Diagnostics Errors;
+	public final Map<Integer, String> Notes;
+	public final List<String> Log;
+
+	private final LineBuffer text;
+	private final List<Node> trees;
+	private final List<Node> pool;
+	private final DialogueLayout layout;
+	private final ScriptSymbols symbols;
+	private final Diagnostics projectErrors;
+
+	public AnalysisResult() {
+		this(new TreeMap<Integer, List<Diagnostic>>(), new TreeMap<Integer, String>(), new ArrayList<String>(), null, null, null, null, null);
+	}
+
+	public AnalysisResult(TreeMap<Integer, List<Diagnostic>> errors, TreeMap<Integer, String> notes, List<String> log,
+			LineBuffer text, List<Node> trees, List<Node> pool, DialogueLayout layout, ScriptSymbols symbols) {
+
+		// Lists of errors aren't changed by the parser once they were put into the map, they are indexed as they are
+		Errors = new Diagnostics(errors);
+		Notes = Collections.unmodifiableMap(new TreeMap<Integer, String>(notes));
+		Log = Collections.unmodifiableList(new ArrayList<String>(log));
+
+		this.text = text == null ? new LineBuffer() : text;
+		this.trees = trees == null ? new ArrayList<Node>() : trees;
+		this.pool = pool == null ? new ArrayList<Node>() : pool;
+		this.layout = layout == null ? new DialogueLayout(this.pool) : layout;
+		this.symbols = symbols == null ? new ScriptSymbols() : symbols;
+		projectErrors = new Diagnostics();
+	}
+
+	private AnalysisResult(AnalysisResult result, Diagnostics projectErrors) {
+		Errors = result.Errors;
+		Notes = result.Notes;
+		Log = result.Log;
+		text = result.text;
+		trees = result.trees;
+		pool = result.pool;
+		layout = result.layout;
+		symbols = result.symbols;
+		this.projectErrors = projectErrors;
+	}
+
+	// The same result with the errors ProjectIndex.check() found for it, replacing the ones it had
+	public AnalysisResult withProjectErrors(Diagnostics projectErrors) {
+		return new AnalysisResult(this, projectErrors);
+	}
+
+	public LineBuffer getText() {
+		return text;
+	}
+
+	public List<Node> getTrees() {
+		return trees;
+	}
+
+	public List<Node> getPool() {
+		return pool;
+	}
+
+	// Shared with the canvas, which moves nodes in it when they are dragged
+	public DialogueLayout getLayout() {
+		return layout;
+	}
+
+	public ScriptSymbols getSymbols() {
+		return symbols;
+	}
+
+	// Empty if the script isn't checked against a project
+	public Diagnostics getProjectErrors() {
+		return projectErrors;
+	}
+}
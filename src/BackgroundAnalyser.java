@@ -0,0 +1,311 @@
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+
+/*
+ *  Runs the Parser on its own thread, so typing and scrolling don't wait for the analysis.
+ *  Every edit cancels the run in progress. Results are published on the Event Dispatch Thread
+ *  as one AnalysisResult, the UI never sees results of a run that wasn't finished.
+ *  Opening a file doesn't wait for its analysis either, the result comes through the Listener like the ones of edits.
+ *  A file that is opened takes its results from the AnalysisCache if it was analysed before.
+ *  The cached result is published right away, then the parser reads the text at a low priority,
+ *  so that the first edit is checked incrementally and keeps the layout of the cached result.
+ *  Once setProject() was given the index of the folder of the file, every result also has the errors of
+ *  its runscript commands. The index is only used on the analysis thread, so the drive isn't read by the UI.
+ *  Times of the passes are recorded into getMetrics(), together with the cache reads and writes.
+ */
+public class BackgroundAnalyser {
+
+	public interface Listener {
+		// Called on the Event Dispatch Thread once a new result was published
+		void analysisFinished(AnalysisResult result);
+
+		// Called on the Event Dispatch Thread when a run failed, the previous result stays published
+		void analysisFailed(RuntimeException e);
+	}
+
+	private final Parser parser = new Parser();
+	private final Metrics metrics = new Metrics();
+	private final AnalysisCache cache;
+	private final Listener listener;
+	private final ExecutorService executor;
+	private Future<?> inFlight;
+	private volatile boolean warmingUp; // edits don't cancel the parser reading a cached text, they are patched onto it afterwards
+
+	// Text waiting for the analysis. Lines are relative to the text the parser has seen last,
+	// edits that arrive before the worker picks them up are merged together
+	private final Object lock = new Object();
+	private List<String> pendingText;
+	private ChangedLines pendingLines;
+	private boolean pendingFullScan;
+	private int generation;
+
+	private volatile AnalysisResult result = new AnalysisResult();
+
+	// Used only on the analysis thread
+	private ProjectIndex project;
+	private File projectFile;
+	private AnalysisResult lastResult; // last result made, without the errors of the project
+	private int lastGeneration;
+
+	// cache may be null, then every file is parsed when it's opened
+	public BackgroundAnalyser(AnalysisCache cache, Listener listener) {
+		this.cache = cache;
+		this.listener = listener;
+		parser.setMetrics(metrics);
+		executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Deeplie analysis");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/*
+	 *  Schedules the analysis of the given snapshot of the editor. changedLines are the lines
+	 *  edited since the previous call, null means the whole text has to be checked.
+	 */
+	public void analyse(List<String> text, ChangedLines changedLines) {
+		synchronized (lock) {
+			if (changedLines == null || pendingFullScan)
+				pendingFullScan = true;
+			else
+				pendingLines = pendingLines == null ? changedLines : pendingLines.merge(changedLines);
+			pendingText = text;
+			++generation;
+		}
+
+		if (inFlight != null && !warmingUp)
+			inFlight.cancel(true);
+		inFlight = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				runPending();
+			}
+		});
+	}
+
+	/*
+	 *  Schedules the analysis of the whole text, used when a file is opened or replaced.
+	 *  Until its result is published getResult() is empty, results of the previous text don't show up on the new one.
+	 */
+	public void analyseText(List<String> text) {
+		analyseText(new LineBuffer(text));
+	}
+
+	public void analyseText(final LineBuffer text) {
+		final int runGeneration;
+		synchronized (lock) {
+			pendingText = null;
+			pendingLines = null;
+			pendingFullScan = false;
+			runGeneration = ++generation;
+		}
+		result = new AnalysisResult();
+
+		if (inFlight != null)
+			inFlight.cancel(true);
+		inFlight = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				// Interrupt of the cancelled run may still be set on the worker thread
+				Thread.interrupted();
+				try {
+					analyse(text, runGeneration);
+				}
+				catch (CancellationException e) {
+					// An edit came before the analysis was finished, or another file was opened,
+					// the parser has kept the unfinished work for the edit
+				}
+				catch (RuntimeException e) {
+					parser.clearData();
+					fail(e, runGeneration);
+				}
+			}
+		});
+	}
+
+	// Publishes the result of the whole text, a cached one even before the parser has seen the text
+	private void analyse(LineBuffer text, int runGeneration) {
+		String key = null;
+		if (text != null && cache != null) {
+			Metrics.Timer timer = metrics.start("cache read");
+			key = cache.key(text);
+			AnalysisResult cached = cache.get(key, text, true);
+			timer.stop();
+			if (cached != null) {
+				publish(checkProject(cached, runGeneration), runGeneration);
+				warmUp(text, cached);
+				return;
+			}
+		}
+
+		if (text == null)
+			parser.clearData();
+		else
+			parser.setText(text);
+		AnalysisResult newResult = parser.snapshot();
+		if (key != null) {
+			Metrics.Timer timer = metrics.start("cache write");
+			cache.put(key, newResult);
+			cache.evict();
+			timer.stop();
+		}
+		publish(checkProject(newResult, runGeneration), runGeneration);
+	}
+
+	/*
+	 *  The parser reads the text of a published cached result, taking over its nodes and layout.
+	 *  Nothing is published, the result would be the cached one again.
+	 */
+	private void warmUp(LineBuffer text, AnalysisResult cached) {
+		Thread thread = Thread.currentThread();
+		warmingUp = true;
+		thread.setPriority(Thread.MIN_PRIORITY);
+		try {
+			Metrics.Timer timer = metrics.start("warm-up");
+			parser.setText(text, cached);
+			timer.stop();
+		}
+		finally {
+			thread.setPriority(Thread.NORM_PRIORITY);
+			warmingUp = false;
+		}
+	}
+
+	/*
+	 *  Checks runscript commands of the given file against the index from now on, null stops the checks.
+	 *  The index is handed over to the analysis thread, nobody else may use it anymore.
+	 *  The last result is published again with the errors of the project.
+	 */
+	public void setProject(final ProjectIndex index, final File file) {
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				project = index;
+				projectFile = file;
+				if (project != null && lastResult != null) {
+					try {
+						publish(checkProject(lastResult, lastGeneration), lastGeneration);
+					}
+					catch (RuntimeException e) {
+						fail(e, lastGeneration);
+					}
+				}
+			}
+		});
+	}
+
+	// Adds the errors of the runscript commands, the index learns the new symbols of the file first
+	private AnalysisResult checkProject(AnalysisResult newResult, int runGeneration) {
+		lastResult = newResult;
+		lastGeneration = runGeneration;
+		if (project == null)
+			return newResult;
+		Metrics.Timer timer = metrics.start("project check");
+		project.update(projectFile, newResult.getSymbols());
+		Diagnostics errors = project.check(projectFile);
+		timer.stop();
+		metrics.addRuleHits(project.getRules());
+		return newResult.withProjectErrors(errors);
+	}
+
+	// Drops all results, used for a new empty file
+	public void clear() {
+		analyseText((LineBuffer) null);
+	}
+
+	// Used by the layouts from now on, FontMetrics of the canvas can be read from the analysis thread
+	public void setLabelWidths(final DialogueLayout.LabelWidths labelWidths) {
+		executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				parser.setLabelWidths(labelWidths);
+			}
+		});
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public AnalysisResult getResult() {
+		return result;
+	}
+
+	private void runPending() {
+		List<String> text;
+		ChangedLines changedLines;
+		boolean fullScan;
+		final int runGeneration;
+
+		synchronized (lock) {
+			if (pendingText == null)
+				return; // already taken by an earlier run
+			text = pendingText;
+			changedLines = pendingLines;
+			fullScan = pendingFullScan;
+			runGeneration = generation;
+			pendingText = null;
+			pendingLines = null;
+			pendingFullScan = false;
+		}
+
+		final AnalysisResult newResult;
+		try {
+			Thread.interrupted();
+			if (fullScan || changedLines == null)
+				parser.setText(text);
+			else
+				parser.updateText(text, changedLines.getStart() + 1, changedLines.getOldEnd() + 1, changedLines.getNewEnd() + 1);
+			newResult = checkProject(parser.snapshot(), runGeneration);
+		}
+		catch (CancellationException e) {
+			// A newer edit is waiting, the parser has kept the unfinished work for it
+			return;
+		}
+		catch (RuntimeException e) {
+			// The next run starts from scratch instead of patching results that may be broken
+			parser.clearData();
+			fail(e, runGeneration);
+			return;
+		}
+
+		publish(newResult, runGeneration);
+	}
+
+	private void publish(final AnalysisResult newResult, final int runGeneration) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					if (runGeneration != generation)
+						return; // the text was edited again in the meantime
+				}
+				result = newResult;
+				listener.analysisFinished(newResult);
+			}
+		});
+	}
+
+	private void fail(final RuntimeException e, final int runGeneration) {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					if (runGeneration != generation)
+						return; // nobody waits for this text anymore
+				}
+				listener.analysisFailed(e);
+			}
+		});
+	}
+}
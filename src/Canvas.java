@@ -13,9 +13,12 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.swing.JPanel;
@@ -23,25 +26,80 @@ import javax.swing.JPanel;
 public class Canvas extends JPanel {
 
 	private static final long serialVersionUID = -1354251777507926593L;
-	private BufferedImage savedImage;
-	private List<Node> trees, pool;
+	private DialogueLayout layout; // positions of the nodes, computed by the parser
+	private SpatialIndex nodeIndex; // the same positions on a grid, for finding the node under the mouse
 	
-	public int drawLimit = 2;
-	private double startAngle = 0;
-	private double spray = Math.PI; // defines the cone of each branch
-	private double r = 50; // the length of each edge
 	private double nodesize = 10; 
 	
+	//  Levels of detail: below LABEL_SCALE only roots have labels, below CLUSTER_SCALE
+	//  other nodes are drawn as one square per CLUSTER_SIZE pixels, bigger if there are more nodes in it
+	private static final double LABEL_SCALE = 0.6, CLUSTER_SCALE = 0.25;
+	private static final int CLUSTER_SIZE = 8;
+	
 	private double scale;
 	private boolean draggingRMB = false, draggingLMB = false;
 	private Point mouseLastPoint;
 	private int shiftX, shiftY, shX, shY; // shX & shY - temporal shift (generated by mouse dragging), shiftX & shiftY - constant shift
 	
 	private Node selectedNode = null;
+	private Metrics metrics = Metrics.DISABLED;
+	
+	/*
+	 *  The scene: edges and nodes of the layout in the order they are drawn, in world coordinates.
+	 *  It is built again only when the layout changes, dragging moves the marks of the node, panning and zooming just paint it.
+	 */
+	private List<Mark> scene = new ArrayList<Mark>();
+	private boolean sceneNeeded = true;
+	private int firstNodeMark; // marks of the nodes follow the edges, in the order of the layout
+	private int[][] edgeMarksOfNode; // [node] -> marks of the edges that start or end at it, built with the scene
+	
+	// The scene as it was painted last time, only the part that changed is painted again 
+	private BufferedImage buffer;
+	private boolean bufferValid = false;
+	private int bufferShiftX, bufferShiftY;
+	private double bufferScale;
+	private Font labelFont = new Font("Verdana", Font.TRUETYPE_FONT, 12);
+	private FontMetrics labelMetrics = getFontMetrics(labelFont);
+	private int[] labelWidths; // of the nodes of the layout, measured once
+	
+	// How wide labels are painted, the layout leaves room for them
+	private final DialogueLayout.LabelWidths labelWidthsOfFont = new DialogueLayout.LabelWidths() {
+		@Override
+		public double getWidth(String label) {
+			return labelMetrics.stringWidth(label);
+		}
+	};
+	
+	private static class Mark {
+		static final int EDGE = 0, LEAF = 1, BRANCH = 2;
+		
+		final int kind;
+		final Node node;			// null for edges
+		double x1, y1, x2, y2;		// ends of an edge, or the position of a node twice
+		int from = -1, to = -1;		// nodes at the ends of an edge, -1 for a bend
+		final Color color;
+		final boolean root;			// a node nobody jumps to, always painted with its label
+		final int labelWidth;
+		
+		Mark(int kind, Node node, double x1, double y1, double x2, double y2, Color color, boolean root, int labelWidth) {
+			this.kind = kind;
+			this.node = node;
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+			this.color = color;
+			this.root = root;
+			this.labelWidth = labelWidth;
+		}
+	}
+	
+	public DialogueLayout.LabelWidths getLabelWidths() {
+		return labelWidthsOfFont;
+	}
 	
 	public Canvas () {
-		trees = new ArrayList<Node>();
-		pool = new ArrayList<Node>();
+		setData(new DialogueLayout(new ArrayList<Node>()));
 		
 		setFocusable(true);
 		resetCanvas();
@@ -54,65 +112,208 @@ public class Canvas extends JPanel {
 		shY = shiftY = (int) 0;
 	}
 	
-    private void createBackGround() {
-        if (savedImage == null)
-            return;
-        Graphics2D g = (Graphics2D) savedImage.getGraphics();
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, savedImage.getWidth(), savedImage.getHeight());
-        drawTrees(g);
+    protected void paintComponent(Graphics g) {
+        int W = getWidth();
+        int H = getHeight();
+        if ((W <= 0) || (H <= 0))
+        	return;
+        
+        Metrics.Timer timer = metrics.start("canvas paint");
+        prepareScene();
+        if (buffer == null || buffer.getWidth() != W || buffer.getHeight() != H) {
+        	buffer = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
+        	bufferValid = false;
+        }
+        
+        Graphics2D bg = buffer.createGraphics();
+        
+        //  Shift by whole pixels moves the picture as it is, only the uncovered stripes are painted
+        double dx = (bufferShiftX - shiftX) * scale;
+        double dy = (bufferShiftY - shiftY) * scale;
+        if (bufferValid && scale == bufferScale && dx == Math.rint(dx) && dy == Math.rint(dy) && Math.abs(dx) < W && Math.abs(dy) < H) {
+        	int ix = (int) dx, iy = (int) dy;
+        	if (ix != 0 || iy != 0) {
+        		bg.copyArea(0, 0, W, H, ix, iy);
+        		if (ix != 0)
+        			paintScene(bg, new Rectangle(ix > 0 ? 0 : W + ix, 0, Math.abs(ix), H));
+        		if (iy != 0)
+        			paintScene(bg, new Rectangle(0, iy > 0 ? 0 : H + iy, W, Math.abs(iy)));
+        	}
+        }
+        else
+        	paintScene(bg, new Rectangle(0, 0, W, H));
+        bg.dispose();
+        
+        bufferValid = true;
+        bufferShiftX = shiftX;
+        bufferShiftY = shiftY;
+        bufferScale = scale;
+        
+        g.drawImage(buffer, 0, 0, null);
         drawDirections(g);
         drawLegend(g);
+        timer.stop();
     }
-	
-    public void paint(Graphics g) {
-        if (g != null) {
-            int W = getWidth();
-            int H = getHeight();
-            if ((W > 0) && (H > 0)) {    
-            	savedImage = new BufferedImage(W, H, BufferedImage.TYPE_INT_RGB);
-            	createBackGround();
-            	g.drawImage(savedImage, 0, 0, null);
-            }
-        }
+    
+    /*
+     *  Paints the whole view into the image, the way paintComponent() paints it but without the buffer,
+     *  the legend and the directions. Doesn't need a screen, used by the benchmarks
+     */
+    public void paintTo(BufferedImage image) {
+    	prepareScene();
+    	Graphics2D g = image.createGraphics();
+    	paintScene(g, new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+    	g.dispose();
+    }
+    
+    private void prepareScene() {
+    	if (sceneNeeded) {
+    		buildScene();
+    		sceneNeeded = false;
+    		bufferValid = false;
+    	}
     }
     
     private void drawLegend(Graphics g) {
-    	Font font = new Font("Verdana", Font.TRUETYPE_FONT, 12);
-    	FontMetrics fontMetrics = getFontMetrics(font);
     	double widening = 1.2;
     	String[] hint = {
     			"Use [Right Mouse Button] and [Mouse Wheel] for navigating", 
-    			"You can drag & drop red nodes to get rid of overlapping"
+    			"You can drag & drop nodes to get rid of overlapping",
+    			"Gray edges jump back to a node above"
     			};
     	
     	g.setColor(Color.darkGray);
-    	g.setFont(font);
+    	g.setFont(labelFont);
     	
     	for (int i = 0; i < hint.length; ++i) {
-    		int Y = (int) Math.round(getHeight() + 5 - widening * (hint.length - i) * fontMetrics.getHeight());
+    		int Y = (int) Math.round(getHeight() + 5 - widening * (hint.length - i) * labelMetrics.getHeight());
     		g.drawString(hint[i], 10, Y);
     	}
 		
     }
     
-    private void drawTrees(Graphics g) {
-    	for (Node root: trees) {
-    		for (Node node: pool)
-    			node.resetDrawCounter();
+    /*
+     *  Edges first, so nodes are drawn over them. An edge is a line through its bend points
+     */
+    private void buildScene() {
+    	scene.clear();
+    	double[] x = new double[2], y = new double[2];
+    	for (int e = 0; e < layout.getEdgeCount(); ++e) {
+    		int count = layout.getBendCount(e) + 2;
+    		if (x.length < count) {
+    			x = new double[count];
+    			y = new double[count];
+    		}
+    		x[0] = layout.getX(layout.getEdgeFrom(e));
+    		y[0] = layout.getY(layout.getEdgeFrom(e));
+    		for (int k = 1; k < count - 1; ++k) {
+    			x[k] = layout.getBendX(e, k - 1);
+    			y[k] = layout.getBendY(e, k - 1);
+    		}
+    		x[count - 1] = layout.getX(layout.getEdgeTo(e));
+    		y[count - 1] = layout.getY(layout.getEdgeTo(e));
+    		addEdge(x, y, count, layout.getEdgeFrom(e), layout.getEdgeTo(e), layout.isReversed(e) ? Color.GRAY : Color.BLACK);
+    	}
+    	
+    	indexEdgeMarks();
+    	
+    	firstNodeMark = scene.size();
+    	for (int i = 0; i < layout.getNodeCount(); ++i) {
+    		Node node = layout.getNode(i);
+    		boolean isRoot = node.getFathers().size() == 0;
+    		int kind = node.getChildren().isEmpty() ? Mark.LEAF : Mark.BRANCH;
+    		scene.add(new Mark(kind, node, layout.getX(i), layout.getY(i), layout.getX(i), layout.getY(i), isRoot ? Color.RED : Color.BLACK, isRoot, labelWidths[i]));
+    	}
+    }
+    
+    /*
+     *  Adds the line through the points, leaving out the points where it goes straight.
+     *  A long jump has a bend in every layer it passes, most of them are on one line
+     */
+    private void addEdge(double[] x, double[] y, int count, int from, int to, Color color) {
+    	int first = scene.size();
+    	int start = 0;
+    	double low = Double.NEGATIVE_INFINITY, high = Double.POSITIVE_INFINITY; // slopes that keep all points of the run within half a unit
+    	for (int i = 1; i < count; ++i) {
+    		double dy = y[i] - y[start];
+    		if (dy != 0) {
+    			double slope = (x[i] - x[start]) / dy;
+    			double tolerance = Math.abs(0.5 / dy);
+    			if (slope >= low && slope <= high) {
+    				low = Math.max(low, slope - tolerance);
+    				high = Math.min(high, slope + tolerance);
+    				continue;
+    			}
+    		}
     		
-    		if (root.getPosition() == null) {
-	    		root.setPosition(new Point2D.Double(100 + trees.indexOf(root) * 300, 50));
+    		// The point is off the line, it ends at the previous one
+    		int end = i - 1 > start ? i - 1 : i;
+    		scene.add(new Mark(Mark.EDGE, null, x[start], y[start], x[end], y[end], color, false, 0));
+    		start = end;
+    		i = end;
+    		low = Double.NEGATIVE_INFINITY;
+    		high = Double.POSITIVE_INFINITY;
+    	}
+    	if (start < count - 1)
+    		scene.add(new Mark(Mark.EDGE, null, x[start], y[start], x[count - 1], y[count - 1], color, false, 0));
+    	
+    	scene.get(first).from = from;
+    	scene.get(scene.size() - 1).to = to;
+    }
+    
+    // Edge marks at the ends of every edge by node, counted first so every node gets an array of its size
+    private void indexEdgeMarks() {
+    	int[] counts = new int[layout.getNodeCount()];
+    	for (Mark mark : scene) {
+    		if (mark.from >= 0)
+    			++counts[mark.from];
+    		if (mark.to >= 0 && mark.to != mark.from)
+    			++counts[mark.to];
+    	}
+    	edgeMarksOfNode = new int[counts.length][];
+    	for (int i = 0; i < counts.length; ++i)
+    		edgeMarksOfNode[i] = new int[counts[i]];
+    	int[] filled = new int[counts.length];
+    	for (int m = 0; m < scene.size(); ++m) {
+    		Mark mark = scene.get(m);
+    		if (mark.from >= 0)
+    			edgeMarksOfNode[mark.from][filled[mark.from]++] = m;
+    		if (mark.to >= 0 && mark.to != mark.from)
+    			edgeMarksOfNode[mark.to][filled[mark.to]++] = m;
+    	}
+    }
+    
+    // Moves the node with the ends of its edges, the rest of the scene stays as it is
+    private void moveNode(int i, double x, double y) {
+    	layout.moveNode(i, x, y);
+    	nodeIndex.put(i, x, y);
+    	bufferValid = false;
+    	if (sceneNeeded)
+    		return; // the scene is built from the layout anyway
+    	
+    	Mark node = scene.get(firstNodeMark + i);
+    	node.x1 = node.x2 = x;
+    	node.y1 = node.y2 = y;
+    	for (int m : edgeMarksOfNode[i]) {
+    		Mark mark = scene.get(m);
+    		if (mark.from == i) {
+    			mark.x1 = x;
+    			mark.y1 = y;
+    		}
+    		if (mark.to == i) {
+    			mark.x2 = x;
+    			mark.y2 = y;
     		}
-    		drawNode(g, root, angleMod(startAngle));
     	}
     }
     
     private void drawDirections(Graphics g) {
-    	for (Node root: trees) {
+    	for (int i = 0; i < layout.getNodeCount(); ++i) {
+    		if (layout.getNode(i).getFathers().size() != 0)
+    			continue; // only roots
     		Rectangle bounds = getBounds();
-    		double x = (root.getPosition().getX() - shiftX) * scale + bounds.getX();
-    		double y = (root.getPosition().getY() - shiftY) * scale + bounds.getY();
+    		double x = (layout.getX(i) - shiftX) * scale + bounds.getX();
+    		double y = (layout.getY(i) - shiftY) * scale + bounds.getY();
     		int size = (int) Math.round(nodesize * scale);
     		
     		if (bounds.contains(x, y)) {
@@ -161,82 +362,115 @@ public class Canvas extends JPanel {
     	}
     }
     
-    private void drawNode(Graphics g, Node node, double angle) {  	
-
-    	int childrenCount = node.getChildren().size();
-    	double step = spray / (double) (childrenCount  + 1);
-    	//angle -= angle - spray / 2 + step;
-    	
-    	//if (childrenCount != 1) 
-    		angle = angleMod(angle - spray / 2 + step);
-    	Point2D position = node.getPosition();
+    /*
+     *  Paints the marks of the scene that fall into the area, the rest of the scene is skipped.
+     *  Edges of one color are drawn as one path. The less the scale, the less details are drawn
+     */
+    private void paintScene(Graphics2D g, Rectangle area) {
+    	g.setClip(area);
+    	g.setColor(Color.WHITE);
+    	g.fillRect(area.x, area.y, area.width, area.height);
+    	g.setFont(labelFont);
     	
-    	//////////////////////////////
-    	//	Drawing current node	//
-    	//////////////////////////////
+    	int size = (int) Math.round(nodesize * scale);
+    	boolean labels = scale >= LABEL_SCALE;
+    	boolean clusters = scale < CLUSTER_SCALE;
     	
-    	int x = (int) Math.round((position.getX() - nodesize / 2 - shiftX) * scale);
-		int y = (int) Math.round((position.getY() - nodesize / 2 - shiftY) * scale);
-		int size = (int) Math.round(nodesize * scale);
-		
-		boolean isRoot = node.getFathers().size() == 0;
-		boolean isLeaf = node.getChildren().isEmpty();
-		
-		if (isRoot)
-			g.setColor(Color.RED);
-		else
-			g.setColor(Color.BLACK);
-		
-		if (!node.checkDrawCounter(drawLimit)) {
-			// this branch already was drawn, mark it as duplicate
-			g.setColor(Color.GRAY);
-			g.drawRect(x, y, size, size);
-		} 
-		else {
-			if (isLeaf)
-				g.fillRect(x, y, size, size);
-			else
-				g.drawRoundRect(x, y, size, size, size, size);
-		}
-		
-		if (node.equals(selectedNode))
-			g.drawRoundRect(x - size / 2, y - size / 2, size * 2, size * 2, size * 2, size * 2);
-
-		g.setFont(new Font("Verdana", Font.TRUETYPE_FONT, 12));
-		g.drawString(node.getLabel(), x + 5, y - 5);
-		
-    	//////////////////////////////
-    	//	Drawing children		//
-    	//////////////////////////////
+    	LinkedHashMap<Color, Path2D.Float> edges = new LinkedHashMap<Color, Path2D.Float>();
+    	HashMap<Long, int[]> cells = new HashMap<Long, int[]>(); // column, row and number of nodes of each cluster
+    	double cellSize = CLUSTER_SIZE / scale; // in world coordinates, so panning doesn't move the clusters
     	
-		if (!node.checkDrawCounter(drawLimit)) {
-			// if the branch is a duplicate, we don't draw any children
-			return;
-		}
-		
-		
-    	for (Node child: node.getChildren()) {
-
-    			child.incDrawCounter();
-    			Point2D pos = new Point2D.Double(position.getX() + r * Math.sin(angle), position.getY() + r * Math.cos(angle));
-    			
-    			int x1 = (int) Math.round((position.getX() - shiftX) * scale);
-    			int y1 = (int) Math.round((position.getY() - shiftY) * scale);
-    			int x2 = (int) Math.round((pos.getX() - shiftX) * scale);
-    			int y2 = (int) Math.round((pos.getY() - shiftY) * scale);
-    			
-    			g.setColor(Color.BLACK);
-    			g.drawLine(x1, y1, x2, y2);
+    	for (Mark mark : scene) {
+    		if (mark.kind == Mark.EDGE) {
+    			int x1 = (int) Math.round((mark.x1 - shiftX) * scale);
+    			int y1 = (int) Math.round((mark.y1 - shiftY) * scale);
+    			int x2 = (int) Math.round((mark.x2 - shiftX) * scale);
+    			int y2 = (int) Math.round((mark.y2 - shiftY) * scale);
+    			if (Math.max(x1, x2) < area.x || Math.min(x1, x2) > area.x + area.width || Math.max(y1, y2) < area.y || Math.min(y1, y2) > area.y + area.height)
+    				continue;
     			
-    			child.setPosition(pos);
-    			drawNode(g, child, angle);
-    			angle = angleMod(angle + step);
+    			Path2D.Float path = edges.get(mark.color);
+    			if (path == null) {
+    				path = new Path2D.Float();
+    				edges.put(mark.color, path);
+    			}
+    			path.moveTo(x1, y1);
+    			path.lineTo(x2, y2);
+    			continue;
+    		}
+    		
+    		if (!edges.isEmpty()) {
+    			// Edges come first in the scene, nodes are drawn over them
+    			for (Color color : edges.keySet()) {
+    				g.setColor(color);
+    				g.draw(edges.get(color));
+    			}
+    			edges.clear();
+    		}
+    		
+    		if (clusters && !mark.root && !mark.node.equals(selectedNode)) {
+    			// All of them are counted, so a cluster looks the same whichever part of it is painted
+    			int column = (int) Math.floor(mark.x1 / cellSize), row = (int) Math.floor(mark.y1 / cellSize);
+    			long key = SpatialIndex.key(column, row);
+    			int[] cell = cells.get(key);
+    			if (cell == null)
+    				cells.put(key, new int[] { column, row, 1 });
+    			else
+    				++cell[2];
+    			continue;
+    		}
+    		
+    		int x = (int) Math.round((mark.x1 - nodesize / 2 - shiftX) * scale);
+    		int y = (int) Math.round((mark.y1 - nodesize / 2 - shiftY) * scale);
+    		boolean label = labels || mark.root;
+    		
+    		//  The node with the ring around it when it is selected, and its label
+    		Rectangle bounds = new Rectangle(x - size / 2, y - size / 2, size * 2 + 1, size * 2 + 1);
+    		if (label)
+    			bounds.add(new Rectangle(x + 5, y - 5 - labelMetrics.getAscent(), mark.labelWidth, labelMetrics.getHeight()));
+    		if (!bounds.intersects(area))
+    			continue;
+    		
+    		g.setColor(mark.color);
+    		if (mark.kind == Mark.LEAF)
+    			g.fillRect(x, y, size, size);
+    		else
+    			g.drawRoundRect(x, y, size, size, size, size);
+    		
+    		if (mark.node.equals(selectedNode))
+    			g.drawRoundRect(x - size / 2, y - size / 2, size * 2, size * 2, size * 2, size * 2);
+    		
+    		if (label)
+    			g.drawString(mark.node.getLabel(), x + 5, y - 5);
+    	}
+    	
+    	for (Color color : edges.keySet()) {
+    		g.setColor(color);
+    		g.draw(edges.get(color));
+    	}
+    	
+    	g.setColor(Color.DARK_GRAY);
+    	for (int[] cell : cells.values()) {
+    		int side = Math.min(CLUSTER_SIZE, 2 + 2 * (31 - Integer.numberOfLeadingZeros(cell[2])));
+    		int x = (int) Math.round((cell[0] * cellSize - shiftX) * scale) + (CLUSTER_SIZE - side) / 2;
+    		int y = (int) Math.round((cell[1] * cellSize - shiftY) * scale) + (CLUSTER_SIZE - side) / 2;
+    		if (area.intersects(x, y, side, side))
+    			g.fillRect(x, y, side, side);
     	}
     }
     
-	public void setData(List<Node> roots, List<Node> nodes) {
-		trees = roots;
-		pool = nodes;
+	public void setData(DialogueLayout layout) {
+		if (layout == this.layout)
+			return; // the tree didn't change, nodes keep the places they were dragged to
+		this.layout = layout;
+		sceneNeeded = true;
+		
+		nodeIndex = new SpatialIndex(layout.getNodeCount(), nodesize * 5);
+		labelWidths = new int[layout.getNodeCount()];
+		for (int i = 0; i < layout.getNodeCount(); ++i) {
+			nodeIndex.put(i, layout.getX(i), layout.getY(i));
+			labelWidths[i] = (int) Math.ceil(labelWidthsOfFont.getWidth(layout.getNode(i).getLabel()));
+		}
 	}
 	
 	
@@ -261,6 +495,7 @@ public class Canvas extends JPanel {
 					
 					selectedNode = findNodeByCoordinate(new Point2D.Double(x, y));
 					if(selectedNode != null) {
+						bufferValid = false;
 						repaintCanvas();
 						Main.window.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
 					}
@@ -276,6 +511,7 @@ public class Canvas extends JPanel {
 				if (e.getButton() == MouseEvent.BUTTON1) {
 					draggingLMB = false;
 					selectedNode = null;
+					bufferValid = false;
 					repaintCanvas();
 					Main.window.setCursor(Cursor.getDefaultCursor());	
 				}
@@ -296,7 +532,7 @@ public class Canvas extends JPanel {
 					if (selectedNode != null) {
 						double x = e.getX() / scale + shiftX;
 						double y = e.getY() / scale + shiftY;
-						selectedNode.setPosition(new Point2D.Double(x, y));
+						moveNode(layout.indexOf(selectedNode), x, y);
 					}
 					repaintCanvas();
 				}
@@ -306,6 +542,15 @@ public class Canvas extends JPanel {
 					repaintCanvas();
 				}
 			}
+			
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				Node node = findNodeByCoordinate(new Point2D.Double(e.getX() / scale + shiftX, e.getY() / scale + shiftY));
+				if (node == null)
+					setToolTipText(null);
+				else
+					setToolTipText(node.getLabel() + ", lines " + node.getFirstLine() + "-" + node.getLastLine());
+			}
 		});
     	
     	addMouseWheelListener(new MouseAdapter() {
@@ -343,27 +588,17 @@ public class Canvas extends JPanel {
     	
 	}
 	
-	public void repaintCanvas() {
-    	createBackGround();
-    	Graphics g = this.getGraphics();
-    	g.drawImage(savedImage, 0, 0, null);
+	// Painting is timed as the "canvas paint" stage
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
 	}
 	
-	private double angleMod(double angle) {
-		while (angle < 0)
-			angle += Math.PI * 2;
-		angle %= Math.PI * 2;
-		return angle;
+	public void repaintCanvas() {
+		repaint();
 	}
 	
 	public Node findNodeByCoordinate(Point2D e) {
-		for (Node node: trees) {
-			Point2D pos = node.getPosition();
-			if (pos.distance(e) < nodesize)	{
-				//System.out.println("Node selected: " + node.getLabel());
-				return node;
-			}
-		}
-		return null;
+		int i = nodeIndex.nearest(e.getX(), e.getY(), nodesize);
+		return i == -1 ? null : layout.getNode(i);
 	}
 }
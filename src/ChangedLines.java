@@ -0,0 +1,38 @@
+/*
+ *  A range of edited lines: lines [start, oldEnd] of the previous text were replaced
+ *  by lines [start, newEnd] of the current one (0-based line indexes).
+ */
+public class ChangedLines {
+
+	private final int start, oldEnd, newEnd;
+
+	public ChangedLines(int start, int oldEnd, int newEnd) {
+		this.start = start;
+		this.oldEnd = oldEnd;
+		this.newEnd = newEnd;
+	}
+
+	/*
+	 *  Range covering this edit followed by the given one,
+	 *  where the given edit is expressed in lines of the text after this edit
+	 */
+	public ChangedLines merge(ChangedLines next) {
+		int end = Math.max(newEnd, next.oldEnd);
+		int mergedOldEnd = oldEnd;
+		if (end > newEnd)
+			mergedOldEnd += end - newEnd;
+		return new ChangedLines(Math.min(start, next.start), mergedOldEnd, end + next.newEnd - next.oldEnd);
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getOldEnd() {
+		return oldEnd;
+	}
+
+	public int getNewEnd() {
+		return newEnd;
+	}
+}
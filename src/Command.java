@@ -1,10 +1,17 @@
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 public class Command {
 
+	// How many recently checked arguments are remembered by each command, 0 turns the cache off
+	private static final int CACHE_SIZE = 64;
+	
 	List<Pattern> patterns;
+	private Pattern accepted; // all patterns combined into one alternation
+	private ThreadLocal<Map<String, Boolean>> checked;
 	private boolean isConditional;
 	private String commandName;
 	private String[] examples;
@@ -39,17 +46,58 @@ public class Command {
 	
 	public void addPattern(Pattern p) {
 		patterns.add(p);
+		compile();
 	}
 	public void addPattern(String s) {
-		patterns.add(Pattern.compile(s));
+		addPattern(Pattern.compile(s));
 	}
 	
+	/*
+	 *  The same command is checked with the same arguments on every keystroke, so answers are cached.
+	 *  Commands are shared by all parsers, every thread has a cache of its own,
+	 *  so parsers checking files in parallel don't wait for each other.
+	 */
 	boolean accepts(String argument) {
-		for (Pattern p: patterns) {
-			if (argument.matches(p.toString()))
-				return true;
+		if (accepted == null)
+			return false;
+		if (checked == null)
+			return accepted.matcher(argument).matches();
+		
+		Map<String, Boolean> cache = checked.get();
+		Boolean known = cache.get(argument);
+		if (known != null)
+			return known;
+		boolean result = accepted.matcher(argument).matches();
+		cache.put(argument, result);
+		return result;
+	}
+	
+	private void compile() {
+		if (patterns == null || patterns.isEmpty()) {
+			accepted = null;
+		} else if (patterns.size() == 1) {
+			accepted = patterns.get(0);
+		} else {
+			String alternation = "";
+			for (Pattern p: patterns)
+				alternation += (alternation.isEmpty() ? "" : "|") + "(?:" + p.pattern() + ")";
+			accepted = Pattern.compile(alternation);
+		}
+		
+		if (CACHE_SIZE > 0) {
+			checked = new ThreadLocal<Map<String, Boolean>>() {
+				@Override
+				protected Map<String, Boolean> initialValue() {
+					return new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+						private static final long serialVersionUID = 1L;
+						@Override
+						protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+							return size() > CACHE_SIZE;
+						}
+					};
+				}
+			};
 		}
-		return false;
 	}
 	public String getName() {
 		return commandName;
@@ -76,10 +124,15 @@ public class Command {
 	}
 	public void setPatterns(List<Pattern> patterns) {
 		this.patterns = patterns;
+		compile();
 	}
 	public boolean hasArguments() {
 		return patterns != null;
 	}
+	// All patterns of the arguments combined into one, null if the command has none
+	public String getPattern() {
+		return accepted == null ? null : accepted.pattern();
+	}
 	public boolean hasExamples() {
 		return examples != null;
 	}
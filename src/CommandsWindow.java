@@ -58,7 +58,7 @@ public class CommandsWindow extends JFrame {
 		DefaultListModel<String> listModel = new DefaultListModel<String>();
 		JList<String> list = new JList<String>(listModel);
 		list.setFont(font);
-		Syntax syntax = new Syntax();
+		Syntax syntax = Syntax.getInstance();
 		for (Command c: syntax.commands) {
 			listModel.addElement(c.getName());
 		}
@@ -0,0 +1,170 @@
+import java.util.Arrays;
+
+import javax.swing.AbstractListModel;
+
+/*
+ *  Messages of the Console tab. Messages are only appended, the whole log is cleared when the console is rebuilt.
+ *  The log keeps at most capacity messages in a ring, the oldest ones are dropped when it's full,
+ *  so a script with a huge number of errors can't make the console grow without limits.
+ *  Messages added before pin() (the header: the file, the log of the analysis, the counts) are never dropped,
+ *  and the dropped ones are counted by their severity.
+ *
+ *  The log is the model of the console's JList. Adding messages doesn't show anything,
+ *  publish() puts the messages the filter lets through into the list in one go.
+ */
+public class ConsoleLog extends AbstractListModel<ConsoleLog.Entry> {
+
+	private static final long serialVersionUID = 4613282361749011325L;
+
+	public static final int ALL = 0, ERRORS = 1, INFO = 2; // filters by severity
+
+	// One message, lineNumber is -1 for messages about the whole file
+	public static class Entry {
+
+		public final int lineNumber;
+		public final String severity; // Rule.ERROR, Rule.INFO or null for plain text
+		public final String message;
+
+		public Entry(int lineNumber, String severity, String message) {
+			this.lineNumber = lineNumber;
+			this.severity = severity;
+			this.message = message;
+		}
+
+		// The message as the console shows it and copies it: errors are indented and followed by their line
+		@Override
+		public String toString() {
+			String text = Rule.ERROR.equals(severity) ? "   " + message : message;
+			return lineNumber >= 0 ? text + ", at line " + lineNumber : text;
+		}
+	}
+
+	private final Entry[] entries;
+	private int first, count;
+	private Entry[] pinned = new Entry[0];
+	private int droppedErrors, droppedInfo, droppedOther;
+
+	private Entry[] shown = new Entry[0]; // what the list shows since the last publish()
+
+	public ConsoleLog(int capacity) {
+		entries = new Entry[Math.max(1, capacity)];
+	}
+
+	public void clear() {
+		for (int i = 0; i < count; ++i)
+			entries[(first + i) % entries.length] = null;
+		first = 0;
+		count = 0;
+		pinned = new Entry[0];
+		droppedErrors = droppedInfo = droppedOther = 0;
+	}
+
+	// Severity is taken from the message, "Error: ..." and "Info: ..." as Diagnostic.toString() makes them
+	public void add(int lineNumber, String message) {
+		String severity = null;
+		String trimmed = message.trim();
+		if (trimmed.startsWith(Rule.ERROR + ":"))
+			severity = Rule.ERROR;
+		else if (trimmed.startsWith(Rule.INFO + ":"))
+			severity = Rule.INFO;
+		add(new Entry(lineNumber, severity, message));
+	}
+
+	public void add(Diagnostic diagnostic) {
+		add(new Entry(diagnostic.getLine(), diagnostic.getSeverity(), diagnostic.toString()));
+	}
+
+	public void add(Entry entry) {
+		if (count == entries.length) {
+			Entry old = entries[first];
+			if (Rule.ERROR.equals(old.severity))
+				++droppedErrors;
+			else if (Rule.INFO.equals(old.severity))
+				++droppedInfo;
+			else
+				++droppedOther;
+			entries[first] = entry;
+			first = (first + 1) % entries.length;
+		}
+		else
+			entries[(first + count++) % entries.length] = entry;
+	}
+
+	// Messages added so far stay in the log until it's cleared, however many come after them
+	public void pin() {
+		Entry[] header = new Entry[pinned.length + count];
+		System.arraycopy(pinned, 0, header, 0, pinned.length);
+		for (int i = 0; i < count; ++i) {
+			header[pinned.length + i] = get(i);
+			entries[(first + i) % entries.length] = null;
+		}
+		pinned = header;
+		first = 0;
+		count = 0;
+	}
+
+	// Pinned messages first
+	public int size() {
+		return pinned.length + count;
+	}
+
+	public Entry get(int index) {
+		if (index < pinned.length)
+			return pinned[index];
+		return entries[(first + index - pinned.length) % entries.length];
+	}
+
+	// Messages that didn't fit since the log was cleared
+	public int getDropped() {
+		return droppedErrors + droppedInfo + droppedOther;
+	}
+
+	// Dropped messages of the severity, Rule.ERROR or Rule.INFO
+	public int getDropped(String severity) {
+		return Rule.ERROR.equals(severity) ? droppedErrors : Rule.INFO.equals(severity) ? droppedInfo : 0;
+	}
+
+	/*
+	 *  Shows the messages of the given severity (ALL, ERRORS, INFO) at lines [fromLine, toLine] in the list, one event for all of them.
+	 *  Messages without a line are kept only if no lines were asked for, that is fromLine is -1.
+	 *  Plain text (headers, empty lines) is shown only with ALL. How many messages were dropped is said after the pinned ones.
+	 */
+	public void publish(int severity, int fromLine, int toLine) {
+		int oldSize = shown.length;
+		Entry[] filtered = new Entry[size() + 1];
+		int n = 0;
+		for (int i = 0; i < size(); ++i) {
+			if (i == pinned.length && getDropped() > 0)
+				filtered[n++] = droppedNote();
+			Entry entry = get(i);
+			if (severity == ERRORS && !Rule.ERROR.equals(entry.severity))
+				continue;
+			if (severity == INFO && !Rule.INFO.equals(entry.severity))
+				continue;
+			if (fromLine != -1 && (entry.lineNumber < fromLine || entry.lineNumber > toLine))
+				continue;
+			filtered[n++] = entry;
+		}
+		shown = Arrays.copyOf(filtered, n);
+
+		if (oldSize > shown.length)
+			fireIntervalRemoved(this, shown.length, oldSize - 1);
+		if (shown.length > 0)
+			fireContentsChanged(this, 0, shown.length - 1);
+	}
+
+	private Entry droppedNote() {
+		return new Entry(-1, null, "(" + getDropped() + " earlier messages were dropped: " + droppedErrors + " errors, " + droppedInfo + " info, "
+				+ droppedOther + " other)");
+	}
+
+	@Override
+	public int getSize() {
+		return shown.length;
+	}
+
+	@Override
+	public Entry getElementAt(int index) {
+		return shown[index];
+	}
+}
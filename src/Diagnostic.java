@@ -0,0 +1,69 @@
+/*
+ *  One problem found by a rule: which rule, how bad, where and what to do about it.
+ *  Columns are 0-based offsets in the text of the line, endColumn is the first column after the span.
+ *  Problems of the whole file have line -1, columns are -1 when the place in the line isn't known.
+ */
+public class Diagnostic {
+
+	private final String ruleId;
+	private final String severity;
+	private final int line;
+	private final int startColumn, endColumn;
+	private final String message;
+	private final String hint; // how to fix it, null if there's no simple fix
+
+	public Diagnostic(String ruleId, String severity, int line, int startColumn, int endColumn, String message, String hint) {
+		this.ruleId = ruleId;
+		this.severity = severity;
+		this.line = line;
+		this.startColumn = startColumn;
+		this.endColumn = endColumn;
+		this.message = message;
+		this.hint = hint;
+	}
+
+	// The same problem moved to another line, used when lines are inserted or deleted above it
+	public Diagnostic atLine(int line) {
+		if (line == this.line)
+			return this;
+		return new Diagnostic(ruleId, severity, line, startColumn, endColumn, message, hint);
+	}
+
+	public String getRuleId() {
+		return ruleId;
+	}
+
+	public String getSeverity() {
+		return severity;
+	}
+
+	public boolean isError() {
+		return Rule.ERROR.equals(severity);
+	}
+
+	public int getLine() {
+		return line;
+	}
+
+	public int getStartColumn() {
+		return startColumn;
+	}
+
+	public int getEndColumn() {
+		return endColumn;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getHint() {
+		return hint;
+	}
+
+	// "Error: unknown command 'gotoEND'", the way the problem is shown to the user
+	@Override
+	public String toString() {
+		return severity + ": " + message;
+	}
+}
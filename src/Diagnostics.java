@@ -0,0 +1,137 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/*
+ *  All diagnostics of a script, ordered by line, problems of the whole file (line -1) first.
+ *  Diagnostics of a line stay in the order the checks found them.
+ *
+ *  Made once per analysis and never changed, so the UI can read it on every paint without copying:
+ *  the diagnostics are in one array, lines[i] has diagnostics [starts[i], starts[i + 1]),
+ *  and hasError() is a lookup in a bitset of lines.
+ */
+public class Diagnostics {
+
+	private final Diagnostic[] diagnostics;
+	private final int[] lines; // lines that have diagnostics, ascending
+	private final int[] starts; // index of the first diagnostic of every line, one more at the end
+	private final BitSet errors = new BitSet(); // lines with an error
+
+	public Diagnostics() {
+		this(Collections.<Integer, List<Diagnostic>>emptySortedMap());
+	}
+
+	// Keys are the lines, the diagnostics of a key are taken as they are
+	public Diagnostics(SortedMap<Integer, List<Diagnostic>> byLine) {
+		int count = 0;
+		for (List<Diagnostic> list : byLine.values())
+			count += list.size();
+
+		diagnostics = new Diagnostic[count];
+		int[] lines = new int[byLine.size()];
+		starts = new int[byLine.size() + 1];
+		int next = 0, i = 0;
+		for (Map.Entry<Integer, List<Diagnostic>> entry : byLine.entrySet()) {
+			if (entry.getValue().isEmpty())
+				continue;
+			int line = entry.getKey();
+			lines[i] = line;
+			starts[i++] = next;
+			for (Diagnostic diagnostic : entry.getValue()) {
+				diagnostics[next++] = diagnostic;
+				if (line >= 0 && diagnostic.isError())
+					errors.set(line);
+			}
+		}
+		starts[i] = next;
+		this.lines = i == lines.length ? lines : Arrays.copyOf(lines, i);
+	}
+
+	private Diagnostics(Diagnostic[] diagnostics, int[] lines, int[] starts) {
+		this.diagnostics = diagnostics;
+		this.lines = lines;
+		this.starts = starts;
+		for (int i = 0; i < lines.length; ++i) {
+			if (lines[i] < 0)
+				continue;
+			for (int j = starts[i]; j < starts[i + 1]; ++j)
+				if (diagnostics[j].isError())
+					errors.set(lines[i]);
+		}
+	}
+
+	public boolean hasError(int line) {
+		if (line < 0)
+			return lines.length > 0 && lines[0] == line && hasError(get(line));
+		return errors.get(line);
+	}
+
+	private static boolean hasError(List<Diagnostic> list) {
+		for (Diagnostic diagnostic : list)
+			if (diagnostic.isError())
+				return true;
+		return false;
+	}
+
+	// Diagnostics of the line, empty if there are none
+	public List<Diagnostic> get(int line) {
+		int i = Arrays.binarySearch(lines, line);
+		if (i < 0)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(Arrays.asList(diagnostics).subList(starts[i], starts[i + 1]));
+	}
+
+	// Lines that have diagnostics, -1 included if the file has some
+	public int[] getLines() {
+		return lines.clone();
+	}
+
+	public int getLineCount() {
+		return lines.length;
+	}
+
+	public int size() {
+		return diagnostics.length;
+	}
+
+	public boolean isEmpty() {
+		return diagnostics.length == 0;
+	}
+
+	public List<Diagnostic> getAll() {
+		return Collections.unmodifiableList(Arrays.asList(diagnostics));
+	}
+
+	// Diagnostics of both, the ones of this come first on lines that have both
+	public Diagnostics merge(Diagnostics other) {
+		if (other.isEmpty())
+			return this;
+		if (isEmpty())
+			return other;
+
+		Diagnostic[] merged = new Diagnostic[diagnostics.length + other.diagnostics.length];
+		int[] mergedLines = new int[lines.length + other.lines.length];
+		int[] mergedStarts = new int[mergedLines.length + 1];
+		int i = 0, j = 0, count = 0, next = 0;
+		while (i < lines.length || j < other.lines.length) {
+			int line = j == other.lines.length || (i < lines.length && lines[i] <= other.lines[j]) ? lines[i] : other.lines[j];
+			mergedLines[count] = line;
+			mergedStarts[count++] = next;
+			if (i < lines.length && lines[i] == line) {
+				for (int k = starts[i]; k < starts[i + 1]; ++k)
+					merged[next++] = diagnostics[k];
+				++i;
+			}
+			if (j < other.lines.length && other.lines[j] == line) {
+				for (int k = other.starts[j]; k < other.starts[j + 1]; ++k)
+					merged[next++] = other.diagnostics[k];
+				++j;
+			}
+		}
+		mergedStarts[count] = next;
+		return new Diagnostics(merged, Arrays.copyOf(mergedLines, count), Arrays.copyOf(mergedStarts, count + 1));
+	}
+}
@@ -0,0 +1,522 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/*
+ *  Positions of the nodes of the dialogue graph. Computed by the parser once the tree was built,
+ *  the canvas only reads them. It's a layered layout:
+ *  - jumps that close a cycle are turned around, so the graph has no cycles,
+ *  - every node goes one layer below its lowest father,
+ *  - jumps over several layers get a bend point in every layer they pass,
+ *  - nodes in a layer are sorted by the positions of their neighbours to get rid of crossings,
+ *  - and moved towards their neighbours as far as the labels next to them allow.
+ *  Coordinates are kept in arrays, node i is the i-th node of the pool.
+ *  Labels are as wide as LabelWidths says, the canvas gives its font; without one they are estimated from their length.
+ *  A computed layout can be saved with write() and read back for the same pool, see AnalysisCache.
+ */
+public class DialogueLayout {
+
+	private static final double LEFT = 100, TOP = 50;
+	private static final double LAYER_HEIGHT = 60;
+	private static final double GAP = 20; // between two nodes of a layer
+	private static final double COMPONENT_GAP = 80; // between graphs that aren't connected
+	private static final double NODE_EXTENT = 5; // half of the node
+	private static final int SWEEPS = 4;
+
+	// Width of a label in pixels, as it is painted
+	public interface LabelWidths {
+		double getWidth(String label);
+	}
+
+	// 7 pixels a character, for layouts nobody paints, e.g. in tests and benchmarks
+	public static final LabelWidths ESTIMATED = new LabelWidths() {
+		@Override
+		public double getWidth(String label) {
+			return label.length() * 7;
+		}
+	};
+
+	private final Node[] nodes;
+	private final HashMap<Node, Integer> indices;
+	private final double[] coordinates; // x and y of node i are at 2i and 2i+1
+
+	private final int[] edgeFrom, edgeTo; // jumps, a node jumping to itself isn't included
+	private final boolean[] reversed; // the jump closes a cycle, it goes up
+	private final int[] bendStart; // bends of edge e are bends[bendStart[e] .. bendStart[e+1]), counted from the upper end
+	private double[] bends; // x and y of bend k are at 2k and 2k+1
+	private final LabelWidths labelWidths;
+
+	public DialogueLayout(List<Node> pool) {
+		this(pool, ESTIMATED);
+	}
+
+	public DialogueLayout(List<Node> pool, LabelWidths labelWidths) {
+		this(pool, labelWidths, true);
+	}
+
+	private DialogueLayout(List<Node> pool, LabelWidths labelWidths, boolean layOut) {
+		this.labelWidths = labelWidths;
+		nodes = pool.toArray(new Node[pool.size()]);
+		int n = nodes.length;
+		indices = new HashMap<Node, Integer>(n * 2);
+		for (int i = 0; i < n; ++i)
+			indices.put(nodes[i], i);
+
+		int m = 0;
+		for (Node node : nodes)
+			for (Node child : node.getChildren())
+				if (child != node && indices.containsKey(child))
+					++m;
+		edgeFrom = new int[m];
+		edgeTo = new int[m];
+		reversed = new boolean[m];
+		m = 0;
+		for (int i = 0; i < n; ++i) {
+			for (Node child : nodes[i].getChildren()) {
+				Integer j = indices.get(child);
+				if (j == null || j == i)
+					continue;
+				edgeFrom[m] = i;
+				edgeTo[m] = j;
+				++m;
+			}
+		}
+
+		coordinates = new double[n * 2];
+		bendStart = new int[m + 1];
+		if (layOut)
+			layOut();
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(nodes.length);
+		out.writeInt(edgeFrom.length);
+		for (double c : coordinates)
+			out.writeFloat((float) c);
+		for (int e = 0; e < edgeFrom.length; ++e) {
+			out.writeBoolean(reversed[e]);
+			out.writeInt(bendStart[e + 1]);
+		}
+		for (int k = 0; k < bendStart[edgeFrom.length] * 2; ++k)
+			out.writeFloat((float) bends[k]);
+	}
+
+	// Layout saved by write() for the same pool, edges are taken from the pool again
+	public static DialogueLayout read(List<Node> pool, DataInput in) throws IOException {
+		DialogueLayout layout = new DialogueLayout(pool, ESTIMATED, false);
+		int m = layout.edgeFrom.length;
+		if (in.readInt() != layout.nodes.length || in.readInt() != m)
+			throw new IOException("layout doesn't match the tree");
+
+		for (int i = 0; i < layout.coordinates.length; ++i)
+			layout.coordinates[i] = in.readFloat();
+		for (int e = 0; e < m; ++e) {
+			layout.reversed[e] = in.readBoolean();
+			layout.bendStart[e + 1] = in.readInt();
+			if (layout.bendStart[e + 1] < layout.bendStart[e])
+				throw new IOException("broken bends");
+		}
+		layout.bends = new double[layout.bendStart[m] * 2];
+		for (int k = 0; k < layout.bends.length; ++k)
+			layout.bends[k] = in.readFloat();
+		return layout;
+	}
+
+	private void layOut() {
+		int n = nodes.length;
+		int m = edgeFrom.length;
+
+		//////////////////////////////
+		//	Cycles and layers		//
+		//////////////////////////////
+
+		int[] visitOrder = new int[n];
+		int[] topological = new int[n];
+		breakCycles(visitOrder, topological);
+
+		int[] source = new int[m], target = new int[m]; // edges as they go down
+		for (int e = 0; e < m; ++e) {
+			source[e] = reversed[e] ? edgeTo[e] : edgeFrom[e];
+			target[e] = reversed[e] ? edgeFrom[e] : edgeTo[e];
+		}
+
+		// The longest path from a root, fathers are always placed before their children
+		int[] layer = new int[n];
+		int[][] down = group(n, source, m);
+		for (int u : topological)
+			for (int i = down[0][u]; i < down[0][u + 1]; ++i)
+				layer[target[down[1][i]]] = Math.max(layer[target[down[1][i]]], layer[u] + 1);
+
+		//////////////////////////////
+		//	Bend points				//
+		//////////////////////////////
+
+		// Bend points are vertices of their own, a segment connects vertices of neighbouring layers
+		int bendCount = 0;
+		for (int e = 0; e < m; ++e)
+			bendCount += layer[target[e]] - layer[source[e]] - 1;
+
+		int vertexCount = n + bendCount;
+		int[] vertexLayer = Arrays.copyOf(layer, vertexCount);
+		int[] upper = new int[m + bendCount], lower = new int[m + bendCount];
+		int v = n, s = 0;
+		for (int e = 0; e < m; ++e) {
+			bendStart[e] = v - n;
+			int above = source[e];
+			for (int l = layer[source[e]] + 1; l < layer[target[e]]; ++l) {
+				vertexLayer[v] = l;
+				upper[s] = above;
+				lower[s++] = v;
+				above = v++;
+			}
+			upper[s] = above;
+			lower[s++] = target[e];
+		}
+		bendStart[m] = bendCount;
+		bends = new double[bendCount * 2];
+
+		// Neighbours of a vertex in the layer above and in the layer below
+		int[][] up = group(vertexCount, lower, s);
+		for (int i = 0; i < s; ++i)
+			up[1][i] = upper[up[1][i]];
+		down = group(vertexCount, upper, s);
+		for (int i = 0; i < s; ++i)
+			down[1][i] = lower[down[1][i]];
+
+		//////////////////////////////
+		//	Connected graphs		//
+		//////////////////////////////
+
+		// Graphs that aren't connected are laid out side by side, in the order their roots were reached
+		int[] parent = new int[n];
+		for (int i = 0; i < n; ++i)
+			parent[i] = i;
+		for (int e = 0; e < m; ++e)
+			parent[find(parent, edgeFrom[e])] = find(parent, edgeTo[e]);
+
+		int[] byVisit = new int[n];
+		for (int i = 0; i < n; ++i)
+			byVisit[visitOrder[i]] = i;
+		int[] component = new int[vertexCount];
+		int[] rank = new int[n];
+		Arrays.fill(rank, -1);
+		int componentCount = 0;
+		for (int u : byVisit) {
+			int root = find(parent, u);
+			if (rank[root] == -1)
+				rank[root] = componentCount++;
+			component[u] = rank[root];
+		}
+
+		// Bend points belong to the graph of their edge and are sorted right after its upper node
+		final double[] key = new double[vertexCount];
+		for (int i = 0; i < n; ++i)
+			key[i] = visitOrder[i];
+		for (int e = 0; e < m; ++e) {
+			for (int b = bendStart[e]; b < bendStart[e + 1]; ++b) {
+				component[n + b] = component[source[e]];
+				key[n + b] = visitOrder[source[e]] + 0.5;
+			}
+		}
+
+		//////////////////////////////
+		//	Order within layers		//
+		//////////////////////////////
+
+		int layerCount = 0;
+		for (int i = 0; i < vertexCount; ++i)
+			layerCount = Math.max(layerCount, vertexLayer[i] + 1);
+		int[][] layers = group(layerCount, vertexLayer, vertexCount);
+		int[] position = new int[vertexCount];
+
+		for (int l = 0; l < layerCount; ++l)
+			sortLayer(layers, l, component, key, position);
+
+		for (int sweep = 0; sweep < SWEEPS; ++sweep) {
+			checkCancelled();
+			for (int l = 1; l < layerCount; ++l) {
+				barycenters(layers, l, up, position, key);
+				sortLayer(layers, l, component, key, position);
+			}
+			for (int l = layerCount - 2; l >= 0; --l) {
+				barycenters(layers, l, down, position, key);
+				sortLayer(layers, l, component, key, position);
+			}
+		}
+
+		//////////////////////////////
+		//	Coordinates				//
+		//////////////////////////////
+
+		double[] right = new double[vertexCount]; // how far the vertex with its label reaches to the right
+		double[] left = new double[vertexCount];
+		for (int i = 0; i < n; ++i) {
+			left[i] = NODE_EXTENT;
+			right[i] = Math.max(NODE_EXTENT, labelWidths.getWidth(nodes[i].getLabel()));
+		}
+
+		// Packed to the left first, then moved towards the neighbours above and below
+		double[] x = new double[vertexCount];
+		for (int l = 0; l < layerCount; ++l) {
+			for (int i = layers[0][l] + 1; i < layers[0][l + 1]; ++i) {
+				int a = layers[1][i - 1], b = layers[1][i];
+				if (component[a] == component[b])
+					x[b] = x[a] + right[a] + GAP + left[b];
+			}
+		}
+		for (int sweep = 0; sweep < SWEEPS; ++sweep) {
+			checkCancelled();
+			for (int l = 1; l < layerCount; ++l)
+				placeLayer(layers, l, up, component, left, right, x);
+			for (int l = layerCount - 2; l >= 0; --l)
+				placeLayer(layers, l, down, component, left, right, x);
+		}
+
+		double[] minX = new double[componentCount], maxX = new double[componentCount];
+		Arrays.fill(minX, Double.MAX_VALUE);
+		Arrays.fill(maxX, -Double.MAX_VALUE);
+		for (int i = 0; i < vertexCount; ++i) {
+			minX[component[i]] = Math.min(minX[component[i]], x[i] - left[i]);
+			maxX[component[i]] = Math.max(maxX[component[i]], x[i] + right[i]);
+		}
+		double[] offset = new double[componentCount];
+		double end = 0;
+		for (int c = 0; c < componentCount; ++c) {
+			offset[c] = end - minX[c];
+			end += maxX[c] - minX[c] + COMPONENT_GAP;
+		}
+
+		for (int i = 0; i < vertexCount; ++i) {
+			double vx = LEFT + x[i] + offset[component[i]];
+			double vy = TOP + vertexLayer[i] * LAYER_HEIGHT;
+			if (i < n) {
+				coordinates[i * 2] = vx;
+				coordinates[i * 2 + 1] = vy;
+			}
+			else {
+				bends[(i - n) * 2] = vx;
+				bends[(i - n) * 2 + 1] = vy;
+			}
+		}
+	}
+
+	/*
+	 *  Depth-first walk from the roots, then from the nodes that weren't reached (cycles nobody jumps into).
+	 *  A jump to a node on the current path closes a cycle and is turned around.
+	 *  Fills the order in which nodes were reached and the nodes by descending finish time,
+	 *  which is a topological order once the cycles are turned around.
+	 */
+	private void breakCycles(int[] visitOrder, int[] topological) {
+		int n = nodes.length;
+		int[][] out = group(n, edgeFrom, edgeFrom.length);
+		int[] state = new int[n]; // 0 - not reached yet, 1 - on the path, 2 - done
+		int[] next = Arrays.copyOf(out[0], n); // next edge to follow
+		int[] stack = new int[n];
+		int visited = 0, finished = n;
+
+		for (int pass = 0; pass < 2; ++pass) {
+			for (int start = 0; start < n; ++start) {
+				if (state[start] != 0 || (pass == 0 && !nodes[start].getFathers().isEmpty()))
+					continue;
+
+				int top = 0;
+				stack[top++] = start;
+				state[start] = 1;
+				visitOrder[start] = visited++;
+				while (top > 0) {
+					int u = stack[top - 1];
+					if (next[u] < out[0][u + 1]) {
+						int e = out[1][next[u]++];
+						int v = edgeTo[e];
+						if (state[v] == 1)
+							reversed[e] = true;
+						else if (state[v] == 0) {
+							state[v] = 1;
+							visitOrder[v] = visited++;
+							stack[top++] = v;
+						}
+					}
+					else {
+						state[u] = 2;
+						topological[--finished] = u;
+						--top;
+					}
+				}
+			}
+		}
+	}
+
+	// Mean position of the neighbours in the next layer, a vertex without neighbours stays where it is
+	private static void barycenters(int[][] layers, int l, int[][] neighbours, int[] position, double[] key) {
+		for (int i = layers[0][l]; i < layers[0][l + 1]; ++i) {
+			int v = layers[1][i];
+			int from = neighbours[0][v], to = neighbours[0][v + 1];
+			if (from == to) {
+				key[v] = position[v];
+				continue;
+			}
+			double sum = 0;
+			for (int j = from; j < to; ++j)
+				sum += position[neighbours[1][j]];
+			key[v] = sum / (to - from);
+		}
+	}
+
+	private static void sortLayer(int[][] layers, int l, final int[] component, final double[] key, final int[] position) {
+		int from = layers[0][l], to = layers[0][l + 1];
+		Integer[] vertices = new Integer[to - from];
+		for (int i = from; i < to; ++i)
+			vertices[i - from] = layers[1][i];
+
+		Arrays.sort(vertices, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (component[a] != component[b])
+					return component[a] < component[b] ? -1 : 1;
+				int c = Double.compare(key[a], key[b]);
+				return c != 0 ? c : Integer.compare(position[a], position[b]);
+			}
+		});
+
+		for (int i = from; i < to; ++i) {
+			layers[1][i] = vertices[i - from];
+			position[vertices[i - from]] = i - from;
+		}
+	}
+
+	/*
+	 *  Moves the vertices of the layer towards the mean x of their neighbours in the next layer.
+	 *  Packing to the left and to the right both keep the order and the gaps, the vertex goes halfway between them.
+	 */
+	private static void placeLayer(int[][] layers, int l, int[][] neighbours, int[] component, double[] left, double[] right, double[] x) {
+		int from = layers[0][l], count = layers[0][l + 1] - from;
+		double[] wanted = new double[count];
+		for (int i = 0; i < count; ++i) {
+			int v = layers[1][from + i];
+			wanted[i] = x[v];
+			int first = neighbours[0][v], last = neighbours[0][v + 1];
+			if (first < last) {
+				double sum = 0;
+				for (int j = first; j < last; ++j)
+					sum += x[neighbours[1][j]];
+				wanted[i] = sum / (last - first);
+			}
+		}
+
+		double[] toLeft = new double[count], toRight = new double[count];
+		for (int i = 0; i < count; ++i) {
+			toLeft[i] = wanted[i];
+			if (i > 0 && component[layers[1][from + i - 1]] == component[layers[1][from + i]])
+				toLeft[i] = Math.max(wanted[i], toLeft[i - 1] + gap(layers[1][from + i - 1], layers[1][from + i], left, right));
+		}
+		for (int i = count - 1; i >= 0; --i) {
+			toRight[i] = wanted[i];
+			if (i < count - 1 && component[layers[1][from + i + 1]] == component[layers[1][from + i]])
+				toRight[i] = Math.min(wanted[i], toRight[i + 1] - gap(layers[1][from + i], layers[1][from + i + 1], left, right));
+		}
+		for (int i = 0; i < count; ++i)
+			x[layers[1][from + i]] = (toLeft[i] + toRight[i]) / 2;
+	}
+
+	// Distance between two neighbours of a layer, a is on the left
+	private static double gap(int a, int b, double[] left, double[] right) {
+		return right[a] + GAP + left[b];
+	}
+
+	/*
+	 *  Items 0..count-1 grouped by their keys: items with key k are result[1][result[0][k] .. result[0][k+1])
+	 */
+	private static int[][] group(int keyCount, int[] keys, int count) {
+		int[] start = new int[keyCount + 1];
+		for (int i = 0; i < count; ++i)
+			++start[keys[i] + 1];
+		for (int k = 0; k < keyCount; ++k)
+			start[k + 1] += start[k];
+		int[] fill = Arrays.copyOf(start, keyCount);
+		int[] items = new int[count];
+		for (int i = 0; i < count; ++i)
+			items[fill[keys[i]]++] = i;
+		return new int[][] { start, items };
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i)
+			i = parent[i] = parent[parent[i]];
+		return i;
+	}
+
+	private static void checkCancelled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+
+	//////////////////////////
+	// Getters and Setters	//
+	//////////////////////////
+
+	public int getNodeCount() {
+		return nodes.length;
+	}
+
+	public Node getNode(int i) {
+		return nodes[i];
+	}
+
+	// -1 if the node isn't in the layout
+	public int indexOf(Node node) {
+		Integer i = indices.get(node);
+		return i == null ? -1 : i;
+	}
+
+	public double getX(int i) {
+		return coordinates[i * 2];
+	}
+
+	public double getY(int i) {
+		return coordinates[i * 2 + 1];
+	}
+
+	// Used when the node is dragged on the canvas, nothing else moves
+	public void moveNode(int i, double x, double y) {
+		coordinates[i * 2] = x;
+		coordinates[i * 2 + 1] = y;
+	}
+
+	public int getEdgeCount() {
+		return edgeFrom.length;
+	}
+
+	public int getEdgeFrom(int e) {
+		return edgeFrom[e];
+	}
+
+	public int getEdgeTo(int e) {
+		return edgeTo[e];
+	}
+
+	public boolean isReversed(int e) {
+		return reversed[e];
+	}
+
+	public int getBendCount(int e) {
+		return bendStart[e + 1] - bendStart[e];
+	}
+
+	// Bends are counted from the node the edge starts at
+	public double getBendX(int e, int k) {
+		return bends[bendIndex(e, k) * 2];
+	}
+
+	public double getBendY(int e, int k) {
+		return bends[bendIndex(e, k) * 2 + 1];
+	}
+
+	private int bendIndex(int e, int k) {
+		return reversed[e] ? bendStart[e + 1] - 1 - k : bendStart[e] + k;
+	}
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *  Splits a line of a script into tokens in one pass over its characters.
+ *  Words are separated the same way as the editor always did it for highlighting,
+ *  so the tokens can be used by the Parser, by buildTree and by PscriptDocument.
+ */
+public class Lexer {
+
+	private static final String DELIMITERS = ";:{}()[]+-/%<=>!&|^~*,.";
+
+	public static ScriptLine tokenize(String line) {
+
+		List<ScriptLine.Token> tokens = new ArrayList<ScriptLine.Token>();
+		ScriptLine.Token comment = null;
+		ScriptLine.Token openArgument = null, openBracket = null;
+		int codeStart = -1, codeEnd = 0;
+		int lastColon = -1;
+		int n = line.length();
+
+		int i = 0;
+		while (i < n) {
+			char c = line.charAt(i);
+
+			if (c == '#') {
+				comment = new ScriptLine.Token(ScriptLine.Token.COMMENT, line, i, n);
+				break;
+			}
+			if (c <= ' ') {
+				++i;
+				continue;
+			}
+
+			if (codeStart == -1)
+				codeStart = i;
+
+			if (Character.isWhitespace(c)) {
+				// Separates words, but String.trim() never removed it from the code
+				codeEnd = ++i;
+				continue;
+			}
+
+			if (DELIMITERS.indexOf(c) != -1) {
+				ScriptLine.Token token = new ScriptLine.Token(c == '|' ? ScriptLine.Token.PIPE : ScriptLine.Token.SYMBOL, line, i, i + 1);
+				tokens.add(token);
+
+				// Arguments and brackets become one token once they are closed
+				if (c == '<')
+					openArgument = token;
+				else if (c == '>' && openArgument != null) {
+					tokens.remove(tokens.size() - 1);
+					close(openArgument, ScriptLine.Token.ARGUMENT, line, i + 1);
+					openArgument = null;
+				}
+				else if (c == '[' && openBracket == null)
+					openBracket = token;
+				else if (c == ']' && openBracket != null) {
+					tokens.remove(tokens.size() - 1);
+					close(openBracket, ScriptLine.Token.BRACKET, line, i + 1);
+					openBracket = null;
+				}
+				else if (c == ':')
+					lastColon = i;
+				++i;
+			}
+			else {
+				// A word, or a variable if it starts with $
+				int end = i + 1;
+				while (end < n && !isWordEnd(line.charAt(end)))
+					++end;
+				tokens.add(new ScriptLine.Token(c == '$' ? ScriptLine.Token.VARIABLE : ScriptLine.Token.WORD, line, i, end));
+				i = end;
+			}
+			codeEnd = i;
+		}
+
+		if (codeStart == -1)
+			return new ScriptLine(comment == null ? ScriptLine.EMPTY : ScriptLine.COMMENT, line, 0, 0, tokens, comment, null, null);
+
+		char first = line.charAt(codeStart);
+		int kind;
+		if (first == '*')
+			kind = ScriptLine.COMMAND;
+		else if (first == '?')
+			kind = ScriptLine.CONDITION;
+		else if (first == '>')
+			kind = ScriptLine.RESPONSE;
+		else if (isLabel(line, codeStart, codeEnd))
+			kind = ScriptLine.LABEL;
+		else if (lastColon - codeStart >= 2)
+			kind = ScriptLine.SPEECH; // at least two characters of the name before ':'
+		else
+			kind = ScriptLine.TEXT;
+
+		if ((kind == ScriptLine.COMMAND || kind == ScriptLine.CONDITION) && tokens.size() > 1 && tokens.get(1).kind == ScriptLine.Token.WORD)
+			tokens.get(1).kind = ScriptLine.Token.COMMAND_NAME;
+
+		// `:Label` or `goto Label` at the very end of the code
+		String labelTarget = null, jumpTarget = null;
+		ScriptLine.Token last = tokens.isEmpty() ? null : tokens.get(tokens.size() - 1);
+		if (last != null && last.end == codeEnd && last.start > codeStart && last.kind == ScriptLine.Token.WORD && isName(last.text)) {
+			if (line.charAt(last.start - 1) == ':') {
+				labelTarget = last.text;
+				if (last.start - 1 > codeStart)
+					jumpTarget = last.text;
+			}
+			else if (last.start - 5 > codeStart && line.startsWith("goto ", last.start - 5))
+				jumpTarget = last.text;
+			if (jumpTarget != null || labelTarget != null)
+				last.kind = ScriptLine.Token.TARGET;
+		}
+
+		return new ScriptLine(kind, line, codeStart, codeEnd, tokens, comment, labelTarget, jumpTarget);
+	}
+
+	// Argument or bracket spans from its opening token up to the closing character
+	private static void close(ScriptLine.Token open, int kind, String line, int end) {
+		open.kind = kind;
+		open.end = end;
+		open.text = line.substring(open.start, end);
+	}
+
+	private static boolean isWordEnd(char c) {
+		return c == '#' || c == '$' || c <= ' ' || Character.isWhitespace(c) || DELIMITERS.indexOf(c) != -1;
+	}
+
+	// \w+
+	private static boolean isName(String s) {
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_'))
+				return false;
+		}
+		return !s.isEmpty();
+	}
+
+	// [\w+]
+	private static boolean isLabel(String line, int start, int end) {
+		return end - start >= 3 && line.charAt(start) == '[' && line.charAt(end - 1) == ']' && isName(line.substring(start + 1, end - 1));
+	}
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *  Immutable text of a script: all lines are kept in one char array, lineStarts[i] is the offset of line i+1.
+ *  Lines are numbered from 1 like everywhere else in the editor.
+ *  Costs two ints and no objects per line, which matters for scripts with tens of thousands of lines.
+ */
+public class LineBuffer {
+
+	private final char[] chars;
+	private final int[] lineStarts; // one more entry than there are lines, the last one is the end of the text
+	private final int lineCount;
+
+	public LineBuffer() {
+		this(new ArrayList<String>());
+	}
+
+	public LineBuffer(List<String> lines) {
+		int length = 0;
+		for (String line : lines)
+			length += line.length();
+
+		chars = new char[length];
+		lineCount = lines.size();
+		lineStarts = new int[lineCount + 1];
+
+		int offset = 0;
+		for (int i = 0; i < lineCount; ++i) {
+			String line = lines.get(i);
+			lineStarts[i] = offset;
+			line.getChars(0, line.length(), chars, offset);
+			offset += line.length();
+		}
+		lineStarts[lineCount] = offset;
+	}
+
+	// Lines already laid out in the array, see ScriptReader
+	LineBuffer(char[] chars, int[] lineStarts, int lineCount) {
+		this.chars = chars;
+		this.lineStarts = lineStarts;
+		this.lineCount = lineCount;
+	}
+
+	public int getLineCount() {
+		return lineCount;
+	}
+
+	public String getLine(int lineNumber) {
+		return new String(chars, lineStarts[lineNumber - 1], getLineLength(lineNumber));
+	}
+
+	public int getLineLength(int lineNumber) {
+		return lineStarts[lineNumber] - lineStarts[lineNumber - 1];
+	}
+
+	// The whole text, every line followed by '\n'
+	public String toString() {
+		StringBuilder text = new StringBuilder(chars.length + lineCount);
+		for (int i = 1; i <= lineCount; ++i)
+			text.append(chars, lineStarts[i - 1], getLineLength(i)).append('\n');
+		return text.toString();
+	}
+}
@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *  Everything the per-line checks of Parser found on one line: its errors, the TODO/NOTE mark
+ *  and the facts (aliasnames, speaking NPCs, objectives, quests, scripts it runs...) used by the whole-file checks.
+ *  Results are kept per line, so after an edit only the touched lines have to be checked again.
+ */
+public class LineResult {
+
+	public static final int ALIAS = 0;
+	public static final int NPC = 1;
+	public static final int QUEST_ID = 2;
+	public static final int ACTIVATED_OBJECTIVE = 3;
+	public static final int COMPLETED_OBJECTIVE = 4;
+	public static final int ACTIVATED_QUEST = 5;
+	public static final int COMPLETED_QUEST = 6;
+	public static final int QUEST_STAGE = 7;
+	public static final int RUNSCRIPT = 8;
+
+	private List<Diagnostic> errors;
+	private String note;
+	private List<Fact> facts;
+
+	public void addError(Diagnostic diagnostic) {
+		if (errors == null)
+			errors = new ArrayList<Diagnostic>();
+		errors.add(diagnostic);
+	}
+
+	public void addFact(int kind, String value) {
+		if (facts == null)
+			facts = new ArrayList<Fact>();
+		facts.add(new Fact(kind, value));
+	}
+
+	public List<Diagnostic> getErrors() {
+		return errors;
+	}
+
+	public String getNote() {
+		return note;
+	}
+
+	public void setNote(String note) {
+		this.note = note;
+	}
+
+	public List<Fact> getFacts() {
+		return facts;
+	}
+
+	public boolean hasFacts() {
+		return facts != null;
+	}
+
+	public static class Fact {
+
+		public final int kind;
+		public final String value;
+
+		public Fact(int kind, String value) {
+			this.kind = kind;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ *  Checks scripts without the editor: every .pscript file found under the given files and directories
+ *  is run through the Parser, all files at once on the ProjectAnalyser. Targets of `* runscript` are checked
+ *  against the other scripts, including the ones the given scripts run from other folders.
+ *  Errors are printed as JSON lines in the order of the files, one object per error:
+ *  {"file":"quests/Q1.pscript","line":12,"severity":"error","message":"unknown command 'gotoEND'","rule":"unknown-command",
+ *   "column":1,"endColumn":9,"hint":"About > Supported commands lists them"}
+ *  Errors of the whole file have no line. Columns start at 1, endColumn is the first column after the error,
+ *  they are left out when the place in the line isn't known, and so is a hint if there's none.
+ *  Nothing from AWT or Swing is used, so it runs on a server.
+ *
+ *  Exit code: 0 - no errors, 1 - some scripts have errors, 2 - bad arguments or a file couldn't be read.
+ *  Run as "java Lint [--threads N] [--no-cache] [--metrics file.json] <path>..." or "java Main --lint ...",
+ *  by default there is a thread per processor. Results are kept in the AnalysisCache, unchanged scripts aren't parsed again.
+ *  --metrics writes the times of the stages of all checks and the hits of the rules, see Metrics.
+ */
+public class Lint {
+
+	public static final int OK = 0, ERRORS = 1, FAILURE = 2;
+
+	private final PrintStream out;
+	private final PrintStream log;
+	private int failedCount;
+
+	public Lint(PrintStream out, PrintStream log) {
+		this.out = out;
+		this.log = log;
+	}
+
+	public static void main(String[] args) {
+		System.exit(new Lint(System.out, System.err).run(args));
+	}
+
+	public int run(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean cached = true;
+		File metricsFile = null;
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < args.length; ++i) {
+			if (args[i].equals("--threads") && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
+					continue;
+				}
+				catch (NumberFormatException e) {
+					paths.clear();
+					break;
+				}
+			}
+			if (args[i].equals("--no-cache")) {
+				cached = false;
+				continue;
+			}
+			if (args[i].equals("--metrics") && i + 1 < args.length) {
+				metricsFile = new File(args[++i]);
+				continue;
+			}
+			paths.add(args[i]);
+		}
+		
+		if (paths.isEmpty() || threads < 1) {
+			log.println("Usage: java Lint [--threads N] [--no-cache] [--metrics file.json] <file or directory>...");
+			log.println("Checks all .pscript files and prints the errors as JSON lines");
+			return FAILURE;
+		}
+
+		List<File> files = new ArrayList<File>();
+		for (String arg : paths) {
+			File file = new File(arg);
+			if (!file.exists()) {
+				log.println("No such file or directory '" + arg + "'");
+				++failedCount;
+				continue;
+			}
+			try {
+				files.addAll(ProjectAnalyser.findScripts(file));
+			}
+			catch (IOException e) {
+				log.println("Can't read '" + arg + "': " + e.getMessage());
+				++failedCount;
+			}
+		}
+
+		ProjectAnalyser analyser = new ProjectAnalyser(threads);
+		if (cached)
+			analyser.setCache(AnalysisCache.getDefault());
+		Metrics metrics = metricsFile == null ? Metrics.DISABLED : new Metrics();
+		analyser.setMetrics(metrics);
+		ProjectReport report = analyser.analyse(files);
+		Metrics.Timer timer = metrics.start("project check");
+		ProjectIndex index = analyser.index(report);
+		int errorCount = 0;
+		for (ProjectReport.Entry entry : report.getEntries())
+			errorCount += print(entry, index);
+		timer.stop();
+		metrics.addRuleHits(index.getRules());
+
+		if (metricsFile != null) {
+			try {
+				metrics.writeJson(metricsFile);
+			}
+			catch (IOException e) {
+				log.println("Can't write '" + metricsFile.getPath() + "': " + e.getMessage());
+				++failedCount;
+			}
+		}
+
+		failedCount += report.getFailedCount();
+		log.println(report.getFileCount() + " file(s) checked, " + errorCount + " error(s)");
+		if (failedCount > 0)
+			return FAILURE;
+		return errorCount > 0 ? ERRORS : OK;
+	}
+
+	// Errors of the file followed by the errors of its runscript commands, line by line. Returns the number of errors
+	private int print(ProjectReport.Entry entry, ProjectIndex index) {
+		if (entry.getResult() == null) {
+			log.println("Can't read '" + entry.getFile().getPath() + "': " + entry.getFailure().getMessage());
+			return 0;
+		}
+
+		Diagnostics errors = entry.getResult().Errors.merge(index.check(entry.getFile()));
+		for (Diagnostic error : errors.getAll())
+			print(entry.getFile(), error);
+		return errors.size();
+	}
+
+	private void print(File file, Diagnostic error) {
+		StringBuilder json = new StringBuilder();
+		json.append("{\"file\":").append(quote(file.getPath()));
+		if (error.getLine() > 0)
+			json.append(",\"line\":").append(error.getLine());
+		json.append(",\"severity\":").append(quote(error.getSeverity().toLowerCase()));
+		json.append(",\"message\":").append(quote(error.getMessage()));
+		json.append(",\"rule\":").append(quote(error.getRuleId()));
+		if (error.getStartColumn() >= 0) {
+			json.append(",\"column\":").append(error.getStartColumn() + 1);
+			json.append(",\"endColumn\":").append(error.getEndColumn() + 1);
+		}
+		if (error.getHint() != null)
+			json.append(",\"hint\":").append(quote(error.getHint()));
+		json.append('}');
+		out.println(json);
+	}
+
+	static String quote(String s) {
+		StringBuilder quoted = new StringBuilder(s.length() + 2);
+		quoted.append('"');
+		for (int i = 0; i < s.length(); ++i) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': quoted.append("\\\""); break;
+				case '\\': quoted.append("\\\\"); break;
+				case '\n': quoted.append("\\n"); break;
+				case '\r': quoted.append("\\r"); break;
+				case '\t': quoted.append("\\t"); break;
+				default:
+					if (c < 0x20)
+						quoted.append(String.format("\\u%04x", (int) c));
+					else
+						quoted.append(c);
+			}
+		}
+		return quoted.append('"').toString();
+	}
+}
@@ -4,6 +4,13 @@ public class Main {
 
 	public static MainWindow window;
 	public static void main(String[] args) {
+		// "--lint <path>..." checks scripts without opening the window, see Lint
+		if (args.length > 0 && args[0].equals("--lint")) {
+			String[] paths = new String[args.length - 1];
+			System.arraycopy(args, 1, paths, 0, paths.length);
+			Lint.main(paths);
+			return;
+		}
 		window = new MainWindow();
 	}
 
@@ -1,6 +1,7 @@
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.Toolkit;
 import java.awt.datatransfer.DataFlavor;
@@ -16,12 +17,19 @@ import java.io.InputStreamReader;
 import java.net.URISyntaxException;
 import java.nio.file.Paths;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
@@ -30,6 +38,7 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.JTextField;
 import javax.swing.JTextPane;
 import javax.swing.KeyStroke;
 import javax.swing.ScrollPaneConstants;
@@ -40,25 +49,50 @@ import javax.swing.filechooser.FileNameExtensionFilter;
 
 public class MainWindow extends JFrame {
 
-	private static String log = "";
+	// Messages of the console and the model of its list, it's rebuilt by every updateState(). Scripts with more errors show the last of them
+	private static ConsoleLog log = new ConsoleLog(20000);
+	private static int consoleSeverity = ConsoleLog.ALL;
+	private static int consoleFromLine = -1, consoleToLine = -1;
+	private static JTextField consoleLines;
 	private static final long serialVersionUID = -3880026026104218593L;
-	private static JTextArea console;
+	private static JList<ConsoleLog.Entry> console;
 	private static Canvas canvas;
 	private static JTabbedPane tabbedPane;
 	private static JScrollPane consoleScrollpane;
 	
 	public static File LastLoadedFile;
+	// Scripts of the folder of the opened file are indexed in the background and handed to the analyser.
+	// Every open and close counts up the generation, an index made for an earlier one is thrown away
+	private static int projectGeneration;
+	private static ExecutorService projectExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Deeplie project index");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	private static Future<?> projectTask;
 	public static AboutWindow aboutWindow;
 	public static ReplaceWindow replaceWindow;
 	public static CommandsWindow commandsWindow;
-	public static Parser parser = new Parser();
+	public static BackgroundAnalyser analyser = new BackgroundAnalyser(AnalysisCache.getDefault(), new BackgroundAnalyser.Listener() {
+		@Override
+		public void analysisFinished(AnalysisResult result) {
+			updateState();
+			EditorPane.analysisFinished();
+		}
+		
+		@Override
+		public void analysisFailed(RuntimeException e) {
+			pushToLog(-1, Rule.ERROR + ": the analysis failed (" + e + "), the results are of an earlier version of the text");
+			refreshConsole();
+		}
+	});
 	public static JTextArea errorDescription;
 	
 	private static FileNameExtensionFilter filter = new FileNameExtensionFilter("pscript file (.pscript .txt)", "pscript", "txt");
-	private static String[] supportedEncodings = new String[] {"UTF-8", "US-ASCII", "ISO-8859-1"};
 	
-	private static String prefix_error = "   ";
-	private static String prefix_info = "";
 	private static String ProgramName = "LoE .pscript Visualiser Deeplie";
 	private static Font menuFont = new Font("Verdana", Font.PLAIN, 12);
 	private static Font consoleFont = new Font("Courier New", Font.PLAIN, 15);
@@ -83,23 +117,53 @@ public class MainWindow extends JFrame {
     	JPanel background = new JPanel(new BorderLayout());
 
     	canvas = new Canvas();
+    	canvas.setMetrics(analyser.getMetrics());
+    	analyser.setLabelWidths(canvas.getLabelWidths());
     	JPanel canvasHolder = new JPanel(new BorderLayout());
     	canvasHolder.add(canvas);
     	canvasHolder.setBorder(BorderFactory.createCompoundBorder(outer, inner));
     	canvasHolder.setPreferredSize(new Dimension(400, 400));
     	
-    	console = new JTextArea();
-    	console.setRows(15);
-    	console.setLineWrap(true);
-    	console.setWrapStyleWord(true);
+    	// Only the rows scrolled into view are painted, so a console of thousands of errors is as fast as an empty one
+    	console = new JList<ConsoleLog.Entry>(log);
+    	console.setVisibleRowCount(15);
     	console.setBorder(BorderFactory.createEmptyBorder(5, 10, 5, 10));
     	console.setFont(consoleFont);
-    	console.setEditable(false);
+    	console.setFixedCellHeight(console.getFontMetrics(consoleFont).getHeight());
     	consoleScrollpane = new JScrollPane(console);
     	//consoleScrollpane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-    	consoleScrollpane.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15), inner));
+    	consoleScrollpane.setBorder(BorderFactory.createCompoundBorder(BorderFactory.createEmptyBorder(5, 15, 15, 15), inner));
     	consoleScrollpane.setPreferredSize(new Dimension(400, 200));
     	
+    	//  Filters of the console: severity and the lines of the messages
+    	final JComboBox<String> consoleFilter = new JComboBox<String>(new String[] {"All messages", "Errors", "Info"});
+    	consoleFilter.setFont(menuFont);
+    	consoleLines = new JTextField(10);
+    	consoleLines.setFont(menuFont);
+    	consoleLines.setToolTipText("A line or lines like 100-200, all lines if empty");
+    	ActionListener filterListener = new ActionListener() {
+    		public void actionPerformed(ActionEvent e) {
+    			consoleSeverity = consoleFilter.getSelectedIndex() == 1 ? ConsoleLog.ERRORS : consoleFilter.getSelectedIndex() == 2 ? ConsoleLog.INFO : ConsoleLog.ALL;
+    			readLineFilter();
+    			refreshConsole();
+    		}
+    	};
+    	consoleFilter.addActionListener(filterListener);
+    	consoleLines.addActionListener(filterListener);
+    	JPanel filterBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+    	filterBar.setBorder(BorderFactory.createEmptyBorder(15, 10, 5, 15));
+    	JLabel showLabel = new JLabel("Show");
+    	showLabel.setFont(menuFont);
+    	filterBar.add(showLabel);
+    	filterBar.add(consoleFilter);
+    	JLabel linesLabel = new JLabel("at lines");
+    	linesLabel.setFont(menuFont);
+    	filterBar.add(linesLabel);
+    	filterBar.add(consoleLines);
+    	JPanel consoleHolder = new JPanel(new BorderLayout());
+    	consoleHolder.add(filterBar, BorderLayout.NORTH);
+    	consoleHolder.add(consoleScrollpane, BorderLayout.CENTER);
+    	
     	
     	//////////////////
     	//	Adding		//
@@ -132,7 +196,7 @@ public class MainWindow extends JFrame {
     	tabbedPane.setFont(menuFont);
     	tabbedPane.addTab("Text Editor", editorIcon, EditorWrap);
     	tabbedPane.addTab("Canvas", canvasIcon, canvasHolder);
-    	tabbedPane.addTab("Console", consoleIcon, consoleScrollpane);
+    	tabbedPane.addTab("Console", consoleIcon, consoleHolder);
     	background.add(tabbedPane, BorderLayout.CENTER);
     	
     	JPanel glass = (JPanel) getGlassPane();
@@ -149,7 +213,7 @@ public class MainWindow extends JFrame {
 					if (files.size() > 0) {
 						File f = files.get(0);
 						if (filter.accept(f))
-							tryToReadFromFile(f, supportedEncodings);
+							tryToReadFromFile(f);
 						else 
 							JOptionPane.showMessageDialog(null, "File should have either .txt or .pscript extension", "Terminated", JOptionPane.ERROR_MESSAGE);
 					}
@@ -176,9 +240,7 @@ public class MainWindow extends JFrame {
 		SwingUtilities.invokeLater(new Runnable() {
 		    public void run() {
 		    	try {
-					parser.readFromStream(getClass().getResourceAsStream("/Introduction"));
-					LastLoadedFile = null;
-					updateState(true);
+					openText(new ScriptReader(getClass().getResourceAsStream("/Introduction")).getText(), null);
 				}
 		    	catch (IOException e) {}
 		    }
@@ -188,56 +250,76 @@ public class MainWindow extends JFrame {
 		
 	}
 	
-	public static void updateState(boolean reloadEditor) {
-		log = "";
+	public static void updateState() {
+		Metrics metrics = analyser.getMetrics();
+		AnalysisResult analysis = analyser.getResult();
+		Metrics.Timer timer = metrics.start("console");
+		log.clear();
 		pushToLog(-1, "Input file = " + LastLoadedFile);
 		
-		for (String s : parser.Log)
+		for (String s : analysis.Log)
 			pushToLog(-1, s);
 		
-		pushToLog(-1, "Lines total : " + parser.getText().keySet().size());
-		pushToLog(-1, "Lines with errors : " + parser.Errors.keySet().size());
+		pushToLog(-1, "Lines total : " + analysis.getText().getLineCount());
+		pushToLog(-1, "Lines with errors : " + analysis.Errors.getLineCount());
 		
 		pushToLog(-1, "");
-		for (int i : parser.Errors.keySet()) {
-			for (String s : parser.Errors.get(i))
-				pushToLog(i, s);
-		}
-		pushToLog(-1, "");
-		
+		log.pin(); // the header stays however many errors come after it
+		for (Diagnostic error : analysis.Errors.getAll())
+			log.add(error);
 		
-		SwingUtilities.invokeLater(new Runnable() {
-		    public void run() {
-		    	consoleScrollpane.getVerticalScrollBar().setValue(0);
-		    }
-		});
+		// runscript commands checked against the other scripts of the folder
+		for (Diagnostic error : analysis.getProjectErrors().getAll())
+			log.add(error);
+		pushToLog(-1, "");
+		timer.stop();
 		
+		timer = metrics.start("canvas");
 		canvas.resetCanvas();
-		canvas.setData(parser.getTrees(), parser.getPool());
+		canvas.setData(analysis.getLayout());
 		if (canvas.isShowing())
 			canvas.repaintCanvas(); 
+		timer.stop();
 		
-		if (reloadEditor) {
-			EditorPane.loadText(MainWindow.parser.getText());
-			Main.window.unsavedChanges(false);
-		}
+		// Timings of everything above, the canvas and the console are painted later and show up in the next summary
+		pushToLog(-1, "Timings of the analysis:");
+		for (String s : metrics.summary().split(System.lineSeparator()))
+			pushToLog(-1, s);
+		refreshConsole();
 		
 		freshlyOpened = false;
 		
 	}
 	
+	// Messages are shown by refreshConsole(), updateState() calls it once all of them were pushed
 	public static void pushToLog(int lineNumber, String msg) {
-		
-		if (msg.trim().startsWith("Error:"))
-			msg = prefix_error + msg;
-		if (msg.trim().startsWith("Info:"))
-			msg = prefix_info + msg;
-		
-		if (lineNumber >= 0)
-			msg += ", at line " + lineNumber;
-		
-		log += msg + System.lineSeparator();
-		console.setText(log);
+		log.add(lineNumber, msg);
+	}
+	
+	// Puts the messages the filters let through into the console, the list is told about all of them at once
+	public static void refreshConsole() {
+		Metrics.Timer timer = analyser.getMetrics().start("console render");
+		log.publish(consoleSeverity, consoleFromLine, consoleToLine);
+		if (log.getSize() > 0)
+			console.ensureIndexIsVisible(0);
+		timer.stop();
+	}
+	
+	// "120" or "100-200", anything else shows all lines
+	private static void readLineFilter() {
+		consoleFromLine = consoleToLine = -1;
+		String[] range = consoleLines.getText().trim().split("\\s*-\\s*");
+		try {
+			if (range.length == 1 && !range[0].isEmpty())
+				consoleFromLine = consoleToLine = Integer.parseInt(range[0]);
+			else if (range.length == 2) {
+				consoleFromLine = Integer.parseInt(range[0]);
+				consoleToLine = Integer.parseInt(range[1]);
+			}
+		}
+		catch (NumberFormatException e) {
+			consoleFromLine = consoleToLine = -1;
+		}
 	}
 	
 	private JMenuBar createMenuBar() {
@@ -266,10 +348,10 @@ public class MainWindow extends JFrame {
         item_newFile.addActionListener(new ActionListener() {           
 	            public void actionPerformed(ActionEvent e) {
 	            	freshlyOpened = true;
-	            	parser.clearData();
+	            	closeProject();
+	            	analyser.clear();
 	            	EditorPane.clearData();
 	            	LastLoadedFile = null;
-	            	updateState(false);
 	            	unsavedChanges(false);
 	            }           
 	        });
@@ -289,7 +371,7 @@ public class MainWindow extends JFrame {
 	                if (ret == JFileChooser.APPROVE_OPTION) {
 	                    File file = fileopen.getSelectedFile();
 	                    if (file.exists()) {
-	                    	tryToReadFromFile(file, supportedEncodings);
+	                    	tryToReadFromFile(file);
 	                    } else
 	                    	JOptionPane.showMessageDialog(null, "Input file '" + file.getName() + "' does not exist", "Terminated", JOptionPane.ERROR_MESSAGE);
 	                }
@@ -312,7 +394,7 @@ public class MainWindow extends JFrame {
 	            		if (unsavedChanges)
 	            			response = JOptionPane.showConfirmDialog(null, "Reload the file from hard drive?" + System.lineSeparator() + "You will lose all unsaved changes.", "Confirm", JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
 	            		if (response == JOptionPane.YES_OPTION)
-	            			tryToReadFromFile(LastLoadedFile, supportedEncodings);
+	            			tryToReadFromFile(LastLoadedFile);
                 	    else
                 	    	return;
 	            		
@@ -343,7 +425,7 @@ public class MainWindow extends JFrame {
 	                			try {
 									file.createNewFile();
 									LastLoadedFile = file;
-									updateState(true);
+									updateState();
 								}
 	                			catch (IOException e1) {
 	                				//  throw an error if the file wasn't created
@@ -358,7 +440,7 @@ public class MainWindow extends JFrame {
 		                			try {
 										file.createNewFile();
 										LastLoadedFile = file;
-										updateState(true);
+										updateState();
 									}
 		                			catch (IOException e1) {
 		                				//  throw an error if the file wasn't created
@@ -378,6 +460,26 @@ public class MainWindow extends JFrame {
 	        });
         item_saveToFile.setAccelerator(KeyStroke.getKeyStroke("control S"));
         
+        JMenuItem item_exportTimings = new JMenuItem("Export timings as JSON ");
+        item_exportTimings.setFont(menuFont);
+        fileMenu.add(item_exportTimings);
+        item_exportTimings.addActionListener(new ActionListener() {           
+	            public void actionPerformed(ActionEvent e) {
+	            	JFileChooser filecreate = new JFileChooser();
+	            	filecreate.setSelectedFile(new File("timings.json"));
+	            	filecreate.setCurrentDirectory(new File(System.getProperty("user.dir")));
+	            	filecreate.setFileFilter(new FileNameExtensionFilter("JSON file (.json)", "json"));
+	            	if (filecreate.showDialog(null, "Export timings") != JFileChooser.APPROVE_OPTION)
+	            		return;
+	            	try {
+	            		analyser.getMetrics().writeJson(filecreate.getSelectedFile());
+	            	}
+	            	catch (IOException e1) {
+	            		JOptionPane.showMessageDialog(null, "File '" + filecreate.getSelectedFile().getName() + "' wasn't written", "Terminated", JOptionPane.ERROR_MESSAGE);
+	            	}
+	            }
+	        });
+        
         JMenu advancedMenu = new JMenu("Edit");
         advancedMenu.setFont(menuFont);
         
@@ -477,31 +579,89 @@ public class MainWindow extends JFrame {
     	item_redo.setEnabled(EditorPane.undoManager.canRedo());
     }
     
-    private static void tryToReadFromFile(File file, String[] encodings) {
+    private static void tryToReadFromFile(File file) {
 
-    	boolean successful_read = false;
-    	for (String encoding : encodings) {
-    		try {
-    			//  Attempting to read the file using given encoding
-    			parser.readFromFile(file.getAbsolutePath(), encoding);
-    			LastLoadedFile = file;
-    			updateState(true);
-    			successful_read = true;
-    			if (encoding != "UTF-8") 
-    				JOptionPane.showMessageDialog(null, 
-    						"File is not in UTF-8 encoding, but contains special symbols." + System.lineSeparator() + 
-    						"Those symbols might be displayed incorrectly (and appear as squares)." + System.lineSeparator() + System.lineSeparator() +
-    						"To avoid broken symbols just copy all text from the file and paste it" + System.lineSeparator() +
-    						"directly into Deeplie's Text Editor, then save the file via CTRL+S." + System.lineSeparator() +
-    						"This will change the encoding to recommended UTF-8."
-    					, "Your encoding is " + encoding, JOptionPane.INFORMATION_MESSAGE);
-    			break;
-    		}
-    		catch (IOException e) {}
+    	if (!file.exists()) {
+    		JOptionPane.showMessageDialog(null, "No such file in directory '" + file.getAbsolutePath() + "'", "Error", JOptionPane.ERROR_MESSAGE);
+    		return;
     	}
     	
-    	if (!successful_read)
-    		JOptionPane.showMessageDialog(null, "The encoding of given file is not supported and can't be read", "Terminated", JOptionPane.ERROR_MESSAGE);
+    	ScriptReader reader;
+    	Metrics.Timer timer = analyser.getMetrics().start("file read");
+    	try {
+    		//  One read of the file, the encoding is detected from its bytes
+    		reader = new ScriptReader(file);
+    		timer.stop();
+    	}
+    	catch (IOException e) {
+    		JOptionPane.showMessageDialog(null, "Can't read the file", "Terminated", JOptionPane.ERROR_MESSAGE);
+    		return;
+    	}
+    	
+    	openText(reader.getText(), file);
+    	openProject(file);
+    	if (reader.getEncoding() != ScriptReader.UTF_8) 
+    		JOptionPane.showMessageDialog(null, 
+    				"File is not in UTF-8 encoding, but contains special symbols." + System.lineSeparator() + 
+    				"Those symbols might be displayed incorrectly (and appear as squares)." + System.lineSeparator() + System.lineSeparator() +
+    				"To avoid broken symbols just copy all text from the file and paste it" + System.lineSeparator() +
+    				"directly into Deeplie's Text Editor, then save the file via CTRL+S." + System.lineSeparator() +
+    				"This will change the encoding to recommended UTF-8."
+    			, "Your encoding is " + reader.getEncoding(), JOptionPane.INFORMATION_MESSAGE);
     		
     }
+    
+    // The editor shows the text right away, the console and the canvas are updated once the analyser publishes its result
+    private static void openText(LineBuffer text, File file) {
+    	closeProject();
+    	analyser.analyseText(text);
+    	LastLoadedFile = file;
+    	Metrics.Timer timer = analyser.getMetrics().start("loadText");
+    	EditorPane.loadText(text);
+    	timer.stop();
+    	Main.window.unsavedChanges(false);
+    }
+    
+    // Indexes the scripts of the folder of the file in the background, the analyser checks the file against them once they are ready
+    private static void openProject(final File file) {
+    	final File folder = file.getAbsoluteFile().getParentFile();
+    	closeProject();
+    	final int generation = projectGeneration;
+    	
+    	projectTask = projectExecutor.submit(new Runnable() {
+    		@Override
+    		public void run() {
+    			final ProjectIndex index;
+    			try {
+    				ProjectAnalyser projectAnalyser = new ProjectAnalyser();
+    				projectAnalyser.setCache(AnalysisCache.getDefault());
+    				ProjectReport report = projectAnalyser.analyse(ProjectAnalyser.findScripts(folder));
+    				if (Thread.currentThread().isInterrupted())
+    					return; // another file was opened, the scripts it runs aren't needed anymore
+    				index = projectAnalyser.index(report);
+    			}
+    			catch (IOException e) {
+    				return; // runscript commands just aren't checked
+    			}
+    			
+    			SwingUtilities.invokeLater(new Runnable() {
+    				@Override
+    				public void run() {
+    					if (generation != projectGeneration)
+    						return; // another file was opened in the meantime, even one of the same folder
+    					analyser.setProject(index, file);
+    				}
+    			});
+    		}
+    	});
+    }
+    
+    // Stops indexing the previous folder and its checks
+    private static void closeProject() {
+    	if (projectTask != null)
+    		projectTask.cancel(true);
+    	projectTask = null;
+    	++projectGeneration;
+    	analyser.setProject(null, null);
+    }
 }
@@ -0,0 +1,235 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ *  Where the time of an analysis goes: wall time and allocated bytes of every stage of the pipeline
+ *  (reading the file, the passes of the Parser, the console, the editor and the canvas),
+ *  and how many times every rule fired. Stages are timed as
+ *
+ *      Metrics.Timer timer = metrics.start("tree");
+ *      ...
+ *      timer.stop();
+ *
+ *  and a stage that runs several times adds up, e.g. typing runs the line checks after every edit.
+ *  Allocated bytes are counted for the thread that started the timer, -1 if the JVM can't count them.
+ *  Several threads may record into the same Metrics, a Timer is used by the thread that started it.
+ *  summary() is the table shown in the Console tab, toJson() the same numbers for tracking them across releases.
+ */
+public class Metrics {
+
+	// Doesn't record anything, used when nobody asked for metrics
+	public static final Metrics DISABLED = new Metrics(false);
+
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private static final boolean allocationSupported = isAllocationSupported();
+
+	// All timings of one stage
+	public static class Stage {
+
+		public final String name;
+		private int count;
+		private long totalTime, lastTime, maxTime; // ns
+		private long totalBytes, lastBytes;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		public int getCount() {
+			return count;
+		}
+
+		public long getTotalTime() {
+			return totalTime;
+		}
+
+		public long getLastTime() {
+			return lastTime;
+		}
+
+		public long getMaxTime() {
+			return maxTime;
+		}
+
+		public long getTotalBytes() {
+			return totalBytes;
+		}
+
+		public long getLastBytes() {
+			return lastBytes;
+		}
+	}
+
+	public class Timer {
+
+		private final String stage;
+		private final long startTime;
+		private final long startBytes;
+
+		private Timer(String stage) {
+			this.stage = stage;
+			startBytes = allocatedBytes();
+			startTime = System.nanoTime();
+		}
+
+		public void stop() {
+			long time = System.nanoTime() - startTime;
+			long bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+			record(stage, time, bytes);
+		}
+	}
+
+	private static final Timer NO_TIMER = DISABLED.new Timer(null) {
+		@Override
+		public void stop() {
+		}
+	};
+
+	private final boolean enabled;
+	private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<String, Stage>(); // in the order they ran first
+	private final TreeMap<String, Long> ruleHits = new TreeMap<String, Long>();
+
+	public Metrics() {
+		this(true);
+	}
+
+	private Metrics(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	private static boolean isAllocationSupported() {
+		try {
+			return threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+					&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled();
+		}
+		catch (LinkageError | UnsupportedOperationException e) {
+			return false; // not a HotSpot JVM
+		}
+	}
+
+	private static long allocatedBytes() {
+		if (!allocationSupported)
+			return -1;
+		return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	public Timer start(String stage) {
+		if (!enabled)
+			return NO_TIMER;
+		return new Timer(stage);
+	}
+
+	private synchronized void record(String name, long time, long bytes) {
+		Stage stage = stages.get(name);
+		if (stage == null) {
+			stage = new Stage(name);
+			stages.put(name, stage);
+		}
+		++stage.count;
+		stage.totalTime += time;
+		stage.lastTime = time;
+		stage.maxTime = Math.max(stage.maxTime, time);
+		stage.lastBytes = bytes;
+		if (bytes >= 0)
+			stage.totalBytes += bytes;
+	}
+
+	// Takes the hits the rules counted since they were taken last time
+	public void addRuleHits(RuleSet rules) {
+		if (!enabled) {
+			for (Rule rule : rules.getRules())
+				rule.takeHits();
+			return;
+		}
+		synchronized (this) {
+			for (Rule rule : rules.getRules()) {
+				int hits = rule.takeHits();
+				if (hits > 0) {
+					Long old = ruleHits.get(rule.getId());
+					ruleHits.put(rule.getId(), (old == null ? 0 : old) + hits);
+				}
+			}
+		}
+	}
+
+	public synchronized void reset() {
+		stages.clear();
+		ruleHits.clear();
+	}
+
+	// null if the stage didn't run yet
+	public synchronized Stage getStage(String name) {
+		return stages.get(name);
+	}
+
+	public synchronized Map<String, Long> getRuleHits() {
+		return new TreeMap<String, Long>(ruleHits);
+	}
+
+	/*
+	 *  Table of the stages in the order they ran: the last run, the mean of all runs and the slowest one, then the rules that fired.
+	 *  Bytes are shown only if the JVM counts them.
+	 */
+	public synchronized String summary() {
+		StringBuilder summary = new StringBuilder();
+		String separator = System.lineSeparator();
+		summary.append(String.format(Locale.ROOT, "%-16s %6s %10s %10s %10s %10s", "stage", "runs", "last ms", "mean ms", "max ms", "last KB")).append(separator);
+		for (Stage stage : stages.values())
+			summary.append(String.format(Locale.ROOT, "%-16s %6d %10.2f %10.2f %10.2f %10s", stage.name, stage.count,
+					stage.lastTime / 1e6, stage.totalTime / 1e6 / stage.count, stage.maxTime / 1e6,
+					stage.lastBytes < 0 ? "-" : String.valueOf(stage.lastBytes >> 10))).append(separator);
+		if (!ruleHits.isEmpty()) {
+			summary.append(separator).append(String.format(Locale.ROOT, "%-28s %10s", "rule", "hits")).append(separator);
+			for (String rule : ruleHits.keySet())
+				summary.append(String.format(Locale.ROOT, "%-28s %10d", rule, ruleHits.get(rule))).append(separator);
+		}
+		return summary.toString();
+	}
+
+	/*
+	 *  {"stages":[{"name":"tree","count":3,"totalNs":...,"lastNs":...,"maxNs":...,"totalBytes":...,"lastBytes":...}, ...],
+	 *   "rules":{"unknown-label":2, ...}}
+	 *  Bytes are -1 if the JVM doesn't count them.
+	 */
+	public synchronized String toJson() {
+		StringBuilder json = new StringBuilder("{\"stages\":[");
+		boolean first = true;
+		for (Stage stage : stages.values()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			json.append("{\"name\":").append(Lint.quote(stage.name));
+			json.append(",\"count\":").append(stage.count);
+			json.append(",\"totalNs\":").append(stage.totalTime);
+			json.append(",\"lastNs\":").append(stage.lastTime);
+			json.append(",\"maxNs\":").append(stage.maxTime);
+			json.append(",\"totalBytes\":").append(allocationSupported ? stage.totalBytes : -1);
+			json.append(",\"lastBytes\":").append(stage.lastBytes);
+			json.append('}');
+		}
+		json.append("],\"rules\":{");
+		first = true;
+		for (String rule : ruleHits.keySet()) {
+			if (!first)
+				json.append(',');
+			first = false;
+			json.append(Lint.quote(rule)).append(':').append(ruleHits.get(rule));
+		}
+		return json.append("}}").toString();
+	}
+
+	public void writeJson(File file) throws IOException {
+		try (PrintStream out = new PrintStream(file, "UTF-8")) {
+			out.println(toJson());
+			if (out.checkError())
+				throw new IOException("Can't write '" + file.getPath() + "'");
+		}
+	}
+}
@@ -1,27 +1,31 @@
-import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.Set;
 
 public class Node {
 
 	private String label;
-	private TreeMap<Integer, String> content;
+	private int firstLine, lastLine; // content of the node, starting with its [label]
 	private List<Node> fathers;
 	private List<Node> children;
-	private Point2D position;
-	private int drawcount;
+	private Set<Node> linked; // the same children, for checking links without walking the list
 	
-	public Node(TreeMap<Integer, String> content) {
-		setLabel(content.firstEntry().getValue());
-		setContent(content);
+	public Node(String label, int firstLine, int lastLine) {
+		setLabel(label);
+		this.firstLine = firstLine;
+		this.lastLine = lastLine;
 		children = new ArrayList<Node>();
 		fathers = new ArrayList<Node>();
-		drawcount = 0;
+		linked = new HashSet<Node>();
 	}
 
-	public void addChild(Node child) {
+	// Makes child a child of this node, unless they are linked already
+	public void link(Node child) {
+		if (!linked.add(child))
+			return;
 		children.add(child);
+		child.addFather(this);
 	}
 	
 	public List<Node> getChildren() {
@@ -48,20 +52,6 @@ public class Node {
 		return null;
 	}
 
-	public boolean checkDrawCounter(int times) {
-		if (drawcount < times) 
-			return true;
-		return false;
-	}
-	
-	public void incDrawCounter() {
-		++drawcount;
-	}
-	
-	public void resetDrawCounter() {
-		drawcount = 0;
-	}
-	
 	//////////////////////////
 	// Getters and Setters	//
 	//////////////////////////
@@ -74,20 +64,12 @@ public class Node {
 		this.label = label;
 	}
 
-	public TreeMap<Integer, String> getContent() {
-		return content;
-	}
-
-	public void setContent(TreeMap<Integer, String> content) {
-		this.content = content;
-	}
-
-	public Point2D getPosition() {
-		return position;
+	public int getFirstLine() {
+		return firstLine;
 	}
 
-	public void setPosition(Point2D position) {
-		this.position = position;
+	public int getLastLine() {
+		return lastLine;
 	}
 	
 }
@@ -0,0 +1,66 @@
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultHighlighter;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+
+/*
+ *  Highlights all occurrences of the selected text in the editor.
+ *  Occurrences are painted by the Highlighter of the editor, the document isn't changed,
+ *  and only the ones in view are highlighted. They are found with the OccurrenceIndex of the document.
+ */
+public class OccurrenceHighlighter {
+
+	private final JTextComponent component;
+	private final Highlighter.HighlightPainter painter = new DefaultHighlighter.DefaultHighlightPainter(new Color(155, 255, 155));
+	private final List<Object> tags = new ArrayList<Object>();
+	private String query;
+	private int firstLine, lastLine;
+
+	public OccurrenceHighlighter(JTextComponent component) {
+		this.component = component;
+	}
+
+	// Text to highlight, null or empty to highlight nothing
+	public void setQuery(String query) {
+		if (query != null && query.isEmpty())
+			query = null;
+		if (query == null && this.query == null)
+			return;
+		this.query = query;
+		refresh();
+	}
+
+	// Lines shown by the editor (0-based)
+	public void setVisibleLines(int first, int last) {
+		firstLine = first;
+		lastLine = last;
+		if (query != null)
+			refresh();
+	}
+
+	public void refresh() {
+		Highlighter highlighter = component.getHighlighter();
+		for (Object tag : tags)
+			highlighter.removeHighlight(tag);
+		tags.clear();
+
+		if (query == null)
+			return;
+
+		OccurrenceIndex index = ((PscriptDocument) component.getDocument()).getOccurrenceIndex();
+		int selection = component.getSelectionStart();
+		try {
+			for (int offset : index.find(query, firstLine, lastLine)) {
+				if (offset != selection) // the selection itself keeps its own color
+					tags.add(highlighter.addHighlight(offset, offset + query.length(), painter));
+			}
+		}
+		catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+
+/*
+ *  Trigram index of a document for finding occurrences of a selection.
+ *  Every line has a signature: one bit per trigram of the line, 64 bits per line.
+ *  A line may contain the query only if its signature has all bits of the query's trigrams,
+ *  so most lines are skipped without reading their text. Signatures of edited lines are
+ *  dropped by the document and computed again when they are needed.
+ */
+public class OccurrenceIndex {
+
+	private final Document doc;
+	private final Segment segment = new Segment();
+	private long[] signatures = new long[16];	// 0 if not computed yet
+	private int lineCount = 1;					// an empty document has one line
+
+	public OccurrenceIndex(Document doc) {
+		this.doc = doc;
+	}
+
+	/*
+	 *  Lines [start, oldEnd] of the document were replaced by lines [start, newEnd] (0-based)
+	 */
+	public void linesReplaced(int start, int oldEnd, int newEnd) {
+		int newCount = lineCount + newEnd - oldEnd;
+		if (newCount > signatures.length)
+			signatures = Arrays.copyOf(signatures, Math.max(newCount, signatures.length * 2));
+
+		System.arraycopy(signatures, oldEnd + 1, signatures, newEnd + 1, lineCount - oldEnd - 1);
+		Arrays.fill(signatures, start, newEnd + 1, 0);
+		lineCount = newCount;
+	}
+
+	/*
+	 *  Start offsets of the occurrences of the query that start in lines [first, last] (0-based).
+	 *  Occurrences don't overlap, each one is searched after the end of the previous one.
+	 */
+	public List<Integer> find(String query, int first, int last) throws BadLocationException {
+		List<Integer> found = new ArrayList<Integer>();
+		Element root = doc.getDefaultRootElement();
+		first = Math.max(0, first);
+		last = Math.min(root.getElementCount() - 1, last);
+		if (query.isEmpty() || first > last)
+			return found;
+
+		if (query.indexOf('\n') != -1) {
+			// Spans several lines, these are searched in the text of the region itself
+			int start = root.getElement(first).getStartOffset();
+			int end = Math.min(doc.getLength(), root.getElement(last).getEndOffset() + query.length());
+			String text = doc.getText(start, end - start);
+			int lastStart = root.getElement(last).getEndOffset() - start;
+			for (int i = text.indexOf(query); i != -1 && i < lastStart; i = text.indexOf(query, i + query.length()))
+				found.add(start + i);
+			return found;
+		}
+
+		long wanted = signature(query, 0, query.length());
+		for (int line = first; line <= last; line++) {
+			if ((signature(line) & wanted) != wanted)
+				continue;
+
+			Element element = root.getElement(line);
+			int start = element.getStartOffset();
+			doc.getText(start, Math.min(element.getEndOffset(), doc.getLength()) - start, segment);
+			for (int i = indexOf(segment, query, 0); i != -1; i = indexOf(segment, query, i + query.length()))
+				found.add(start + i);
+		}
+		return found;
+	}
+
+	private long signature(int line) throws BadLocationException {
+		if (signatures[line] == 0) {
+			Element element = doc.getDefaultRootElement().getElement(line);
+			int start = element.getStartOffset();
+			doc.getText(start, Math.min(element.getEndOffset(), doc.getLength()) - start, segment);
+			signatures[line] = signature(segment, 0, segment.length());
+		}
+		return signatures[line];
+	}
+
+	// Lines shorter than a trigram have no bits, they are always read
+	private static long signature(CharSequence text, int from, int to) {
+		long bits = 0;
+		for (int i = from; i + 2 < to; i++) {
+			int hash = (text.charAt(i) * 31 + text.charAt(i + 1)) * 31 + text.charAt(i + 2);
+			bits |= 1L << ((hash * 0x9E3779B9) >>> 26);
+		}
+		return bits;
+	}
+
+	private static int indexOf(Segment text, String query, int from) {
+		int n = text.count - query.length();
+		char firstChar = query.charAt(0);
+		for (int i = from; i <= n; i++) {
+			if (text.array[text.offset + i] != firstChar)
+				continue;
+			int j = 1;
+			while (j < query.length() && text.array[text.offset + i + j] == query.charAt(j))
+				j++;
+			if (j == query.length())
+				return i;
+		}
+		return -1;
+	}
+}
@@ -2,30 +2,48 @@
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import javax.swing.JOptionPane;
 
 public class Parser {
 	
-	private HashMap<Integer, String> textWithLines;
+	private LineBuffer textWithLines;
+	private ArrayList<ScriptLine> lines = new ArrayList<ScriptLine>(); // the same text split by the Lexer, index 0 is line 1
 	private List<Node> trees;
 	private List<Node> pool;
+	private DialogueLayout layout = new DialogueLayout(new ArrayList<Node>()); // computed again only when the tree is rebuilt
+	private boolean layoutNeeded = true;
+	private DialogueLayout.LabelWidths labelWidths = DialogueLayout.ESTIMATED;
+	private AnalysisResult earlier; // result of the same text whose tree and layout are taken over, see setText(text, earlier)
+	
+	// Results of the per-line checks, index 0 is line 1. A null entry means the line still has to be checked
+	private ArrayList<LineResult> lineResults;
+	private LineResult current;
+	private ScriptLine currentLine;
+	private int currentLineNumber;
+	
+	// Errors are gathered by three passes, Errors is the merged view of them
+	private TreeMap<Integer, List<Diagnostic>> treeErrors = new TreeMap<Integer, List<Diagnostic>>();
+	private List<Diagnostic> fileErrors = new ArrayList<Diagnostic>();
+	private List<String> treeLog = new ArrayList<String>();
+	private List<String> factLog = new ArrayList<String>();
 	
-	private Syntax pscript = new Syntax();
-	private HashSet<String> DefinedLabels = new HashSet<String>();
+	// Passes that still have to be run, they stay set if the analysis was cancelled half-way
+	private boolean treePending, factsPending;
+	
+	private Syntax pscript = Syntax.getInstance();
+	private HashMap<String, Node> labelIndex = new HashMap<String, Node>(); // [Label] -> node, filled by buildTree()
 	private HashSet<String> Activated_QuestIDs = new HashSet<String>();
 	private HashSet<String> Completed_QuestIDs = new HashSet<String>();
 	private HashSet<String> Activated_Objectives = new LinkedHashSet<String>();
@@ -33,29 +51,34 @@ public class Parser {
 	private LinkedHashSet<Integer> Quest_Stages = new LinkedHashSet<Integer>();
 	private LinkedHashSet<String> Quest_IDs = new LinkedHashSet<String>();
 	private LinkedHashSet<String> MentionedNPCs = new LinkedHashSet<String>();
+	private LinkedHashSet<String> aliases = new LinkedHashSet<String>();
+	private List<ScriptSymbols.Runscript> runscripts = new ArrayList<ScriptSymbols.Runscript>();
 	
-	private Pattern ValidSpeechName, ValidSpeechText, ValidCommand, ValidCondition, ValidLabel;
+	// Every check is compiled once, the matchers are reused for all lines
+	private final RuleSet rules = new RuleSet();
+	private Metrics metrics = Metrics.DISABLED;
 	
-	public TreeMap<Integer, List<String>> Errors =  new TreeMap<Integer, List<String>>();
+	public TreeMap<Integer, List<Diagnostic>> Errors =  new TreeMap<Integer, List<Diagnostic>>();
 	public TreeMap<Integer, String> Notes = new TreeMap<Integer, String>();
 	public List<String> Log = new ArrayList<String>();
 	
 	public Parser() {
 		
-		ValidSpeechName = Pattern.compile("^([\\w\\s]+)( \\(\\w+\\))?"); // Name (emotion)
-		ValidSpeechText = Pattern.compile("[^:#]+"); // blacklisted symbols
-		ValidCommand = Pattern.compile("[\\w\\?\\s:<>=\\-]+"); // \w ? \s : <>=- 
-		ValidCondition = Pattern.compile("[\\w\\?\\s:<>=\\-\\|^&]+");
-		ValidLabel = Pattern.compile("^\\[\\w+\\]");
-		
-		textWithLines = new HashMap<Integer, String>();
+		textWithLines = new LineBuffer();
 	}
 	
 	public void clearData() {
 		Log.clear();
 		Errors.clear();
 		Notes.clear();
-		DefinedLabels.clear();
+		treeErrors.clear();
+		fileErrors.clear();
+		treeLog.clear();
+		factLog.clear();
+		lineResults = null;
+		treePending = false;
+		factsPending = false;
+		labelIndex.clear();
 		Activated_QuestIDs.clear();
 		Completed_QuestIDs.clear();
 		Activated_Objectives.clear();
@@ -63,32 +86,40 @@ public class Parser {
 		Quest_Stages.clear();
 		Quest_IDs.clear();
 		MentionedNPCs.clear();
+		aliases.clear();
+		runscripts.clear();
 	}
 	
-	public static HashMap<Integer, String> addLinesToText (List<String> text) {
-		
-		HashMap<Integer, String> result = new HashMap<Integer, String>();
-		
-		for (int i = 0; i < text.size(); ++i)
-			result.put(i+1, text.get(i));
-		
-		return result;
+	
+	// Batch checks don't draw the trees, they turn the layout off and get an empty one
+	public void setLayoutNeeded(boolean layoutNeeded) {
+		this.layoutNeeded = layoutNeeded;
 	}
 	
+	// Widths of the labels the layout leaves room for, the ones of the canvas that paints it
+	public void setLabelWidths(DialogueLayout.LabelWidths labelWidths) {
+		this.labelWidths = labelWidths;
+	}
 	
-	public void readFromFile(String filename, String encoding) throws IOException {
+	// Times of the passes and hits of the rules go there, nothing is recorded by default
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public void readFromFile(String filename) throws IOException {
 		
 		File file = new File(filename);	
-		if (!file.exists()) {
-			JOptionPane.showMessageDialog(null, "No such file in directory '" + filename + "'", "Error", JOptionPane.ERROR_MESSAGE);
-			return;
-		}
+		if (!file.exists())
+			throw new FileNotFoundException("No such file in directory '" + filename + "'");
 		
-		List<String> text = Files.readAllLines(file.toPath(), Charset.forName(encoding));
-		setText(text);
+		setText(new ScriptReader(file).getText());
 	}
 	
 	public void readFromStream(InputStream stream) throws IOException {
+		setText(readLines(stream));
+	}
+	
+	public static List<String> readLines(InputStream stream) throws IOException {
 		
 		BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
 		String line = null;
@@ -101,319 +132,690 @@ public class Parser {
 		}
 		while (line != null);
 		
-		setText(text);
+		return text;
 	}
 	
 	public void setText(List<String> text) {
+		setText(new LineBuffer(text));
+	}
+	
+	public void setText(LineBuffer text) {
 		clearData();
-		textWithLines = addLinesToText(text);
-		buildTree();
-		performAnalysis();
+		textWithLines = text;
+		Metrics.Timer timer = metrics.start("lexer");
+		lines = tokenize(text, 0, text.getLineCount());
+		timer.stop();
+		lineResults = new ArrayList<LineResult>(Collections.<LineResult>nCopies(text.getLineCount(), null));
+		treePending = true;
+		factsPending = true;
+		
+		finishAnalysis();
 	}
 	
-	private void addError(int lineNumber, String description) {
+	/*
+	 *  setText of a text that was analysed before, e.g. a result read from the AnalysisCache.
+	 *  Everything is checked again, but if the tree comes out the same, the nodes and the layout of the earlier result are kept:
+	 *  the layout isn't computed again, and the canvas showing it keeps the places nodes were dragged to.
+	 */
+	public void setText(LineBuffer text, AnalysisResult earlier) {
+		this.earlier = earlier;
+		try {
+			setText(text);
+		}
+		finally {
+			this.earlier = null;
+		}
+	}
+	
+	/*
+	 *  Incremental version of setText. Lines [firstLine, oldLastLine] of the previous text were replaced by 
+	 *  lines [firstLine, newLastLine] of the given text (1-based, as collected from PscriptDocument's events).
+	 *  Only those lines are checked again, Errors and Notes are patched in place. The tree and the 
+	 *  objective/quest balance are recomputed only if a changed line can affect them.
+	 *  If the thread is interrupted, CancellationException is thrown and the unfinished work 
+	 *  is carried over to the next call.
+	 */
+	public void updateText(List<String> text, int firstLine, int oldLastLine, int newLastLine) {
+		
+		int oldCount = lineResults == null ? -1 : lineResults.size();
+		int newCount = text.size();
+		int delta = newCount - oldCount;
+		
+		// The document has an empty line after the last '\n' that isn't a line of the text, ranges may point past the end
+		int excess = Math.max(0, oldLastLine - oldCount);
+		oldLastLine -= excess;
+		newLastLine -= excess;
+		
+		// Ranges that don't line up with the previous text (file was reloaded, data was cleared...) need a full scan 
+		if (lineResults == null || firstLine < 1 || oldLastLine < firstLine - 1 || newLastLine < firstLine - 1 || newLastLine - oldLastLine != delta) {
+			setText(text);
+			return;
+		}
+		
+		textWithLines = new LineBuffer(text);
+		Metrics.Timer timer = metrics.start("lexer");
+		List<ScriptLine> editedLines = tokenize(textWithLines, firstLine - 1, newLastLine);
+		timer.stop();
 		
-		if (!Errors.containsKey(lineNumber))
-			Errors.put(lineNumber, new ArrayList<String>());
+		if (delta != 0 || pool == null || newLastLine >= newCount)
+			treePending = true;
+		if (delta != 0)
+			factsPending = true;
+		
+		for (int i = firstLine; i <= oldLastLine; ++i) {
+			LineResult old = lineResults.get(i - 1);
+			if (old != null && old.hasFacts())
+				factsPending = true;
+			if (!treePending && !treeSignature(lines.get(i - 1)).equals(treeSignature(editedLines.get(i - firstLine))))
+				treePending = true;
+			// Errors of the tree are marked on the code of the line, they have to be found again if it changed
+			if (!treePending && treeErrors.containsKey(i) && !lines.get(i - 1).getText().equals(editedLines.get(i - firstLine).getText()))
+				treePending = true;
+		}
+		
+		// Replacing results of the edited lines with empty slots and moving everything below them
+		lineResults.subList(firstLine - 1, oldLastLine).clear();
+		lineResults.addAll(firstLine - 1, Collections.<LineResult>nCopies(newLastLine - firstLine + 1, null));
+		lines.subList(firstLine - 1, oldLastLine).clear();
+		lines.addAll(firstLine - 1, editedLines);
+		
+		for (int i = firstLine; i <= oldLastLine; ++i) {
+			Errors.remove(i);
+			Notes.remove(i);
+		}
+		if (delta != 0) {
+			// The tree will be rebuilt, errors of the old one are moved only to be refreshed later
+			treeErrors.subMap(firstLine, oldLastLine + 1).clear();
+			shiftDiagnostics(treeErrors, oldLastLine + 1, delta);
+			shiftDiagnostics(Errors, oldLastLine + 1, delta);
+			shiftLines(Notes, oldLastLine + 1, delta);
+		}
 		
-		Errors.get(lineNumber).add(description);
+		// A line that isn't a speech checks the lines above it for a speaking NPC, 
+		// so the lines right below the edited ones are checked again as well
+		int next = Math.max(firstLine, newLastLine + 1);
+		while (next <= newCount) {
+			lineResults.set(next - 1, null);
+			String s = lines.get(next - 1).getText().trim();
+			if (!(s.isEmpty() || rules.speechSymbols.matches(s)))
+				break;
+			++next;
+		}
+		
+		finishAnalysis();
 	}
 	
-	private void performAnalysis() {
-		String str;
-		Matcher m;
-
-		HashSet<String> npc_names = new HashSet<String>();
-
-		// This message repeats a lot, so I put in a variable
-		String errInappropriateSymbol = "Error: inappropriate symbol(s)";
+	// Runs the passes that are still pending and checks all lines that don't have results yet
+	private void finishAnalysis() {
 		
-		for (int lineNumber : textWithLines.keySet()) {
-			
-			str = textWithLines.get(lineNumber).trim();
-			
-			if (str.matches(".*#\\s*TODO.*"))
-				Notes.put(lineNumber, "TODO");
-			if (str.matches(".*#\\s*NOTE.*"))
-				Notes.put(lineNumber, "NOTE");
-			
-			// Remove all comments from the line
-			str = str.replaceAll("#.*", "").trim();
-			
-			// Saving the current label to allow aliasname only before the first label
-			String currentLabel = "";
-			if (str.matches(ValidLabel.pattern()))
-				currentLabel = str;
-			
-			if (str.isEmpty())
-				continue;
-			
-			if (str.startsWith("*") && !str.matches("\\*" + ValidCommand.pattern())) {
-				
-				if (str.matches("\\*\\s*runscript .+") || str.matches("\\*\\s*f .+") || str.matches("\\*\\s*playsound .+") || str.matches("\\*\\s*spawnmob .+")) {
-					// These commands may have some very rare symbols in their arguments, and I don't want to 
-					// add those very specific symbols into a common whitelist used by all other commands
-					// Instead, those symbols will be treated by the regular expression of those commands 
-				}
-				else {
-					addError(lineNumber, errInappropriateSymbol);
-					continue;
+		if (treePending) {
+			rebuildTree();
+			treePending = false;
+		}
+		
+		Metrics.Timer timer = metrics.start("lines");
+		try {
+			for (int i = 0; i < lineResults.size(); ++i) {
+				if (lineResults.get(i) == null) {
+					checkCancelled();
+					analyseLine(i + 1);
+					if (lineResults.get(i).hasFacts())
+						factsPending = true;
 				}
 			}
-			if (str.startsWith("?") && !str.matches("\\?" + ValidCondition.pattern())) {
-				addError(lineNumber, errInappropriateSymbol);
-				continue;
-			}
-			
+		}
+		finally {
+			timer.stop();
+		}
+		
+		timer = metrics.start("facts");
+		if (factsPending) {
+			collectFacts();
+			factsPending = false;
+		} else {
+			rebuildLog();
+		}
+		timer.stop();
+		// Rules that fired during a cancelled run are counted by the next one
+		metrics.addRuleHits(rules);
+	}
+	
+	private void rebuildTree() {
+		TreeMap<Integer, List<Diagnostic>> previousErrors = treeErrors;
+		List<String> previousLog = treeLog;
+		treeErrors = new TreeMap<Integer, List<Diagnostic>>();
+		treeLog = new ArrayList<String>();
+		HashMap<String, Node> previousIndex = labelIndex;
+		labelIndex = new HashMap<String, Node>();
+		
+		Metrics.Timer timer = metrics.start("tree");
+		try {
+			buildTree();
+			timer.stop();
+			timer = metrics.start("layout");
+			if (!takeEarlierTree())
+				layout = new DialogueLayout(layoutNeeded ? pool : new ArrayList<Node>(), labelWidths);
+		}
+		catch (CancellationException e) {
+			// Errors still show the previous tree, it will be rebuilt on the next run
+			treeErrors = previousErrors;
+			treeLog = previousLog;
+			labelIndex = previousIndex;
+			throw e;
+		}
+		finally {
+			timer.stop();
+		}
+		
+		for (int lineNumber : previousErrors.keySet())
+			refreshErrors(lineNumber);
+		for (int lineNumber : treeErrors.keySet())
+			refreshErrors(lineNumber);
+	}
+	
+	/*
+	 *  Puts the nodes of the earlier result in place of the ones buildTree just made, if they are the same:
+	 *  the same labels at the same lines with the same children. Errors of the tree don't depend on which nodes are kept.
+	 */
+	private boolean takeEarlierTree() {
+		if (earlier == null || earlier.getPool().size() != pool.size() || earlier.getTrees().size() != trees.size())
+			return false;
+		DialogueLayout earlierLayout = earlier.getLayout();
+		if (earlierLayout.getNodeCount() != (layoutNeeded ? pool.size() : 0))
+			return false;
+		
+		HashMap<Node, Node> same = new HashMap<Node, Node>(pool.size() * 2);
+		for (int i = 0; i < pool.size(); ++i)
+			same.put(pool.get(i), earlier.getPool().get(i));
+		for (Node node : pool) {
+			Node other = same.get(node);
+			if (!node.getLabel().equals(other.getLabel()) || node.getFirstLine() != other.getFirstLine() || node.getLastLine() != other.getLastLine()
+					|| node.getChildren().size() != other.getChildren().size())
+				return false;
+			for (int i = 0; i < node.getChildren().size(); ++i)
+				if (same.get(node.getChildren().get(i)) != other.getChildren().get(i))
+					return false;
+		}
+		for (int i = 0; i < trees.size(); ++i)
+			if (same.get(trees.get(i)) != earlier.getTrees().get(i))
+				return false;
+		
+		for (String label : labelIndex.keySet())
+			labelIndex.put(label, same.get(labelIndex.get(label)));
+		pool = earlier.getPool();
+		trees = earlier.getTrees();
+		layout = earlierLayout;
+		return true;
+	}
+	
+	private static void checkCancelled() {
+		if (Thread.currentThread().isInterrupted())
+			throw new CancellationException();
+	}
+	
+	/*
+	 *  Copy of the current results, safe to hand over to another thread
+	 */
+	public AnalysisResult snapshot() {
+		Metrics.Timer timer = metrics.start("snapshot");
+		AnalysisResult result = new AnalysisResult(Errors, Notes, Log, textWithLines, trees, pool, layout, symbols());
+		timer.stop();
+		return result;
+	}
+	
+	// What other scripts of the project can see of this one, see ProjectIndex
+	private ScriptSymbols symbols() {
+		HashMap<String, Integer> labels = new HashMap<String, Integer>();
+		for (String label : labelIndex.keySet())
+			labels.put(label, labelIndex.get(label).getFirstLine());
+		LinkedHashSet<String> objectives = new LinkedHashSet<String>(Activated_Objectives);
+		objectives.addAll(Completed_Objectives);
+		return new ScriptSymbols(labels, Quest_IDs, objectives, aliases, runscripts);
+	}
+	
+	// Moves all entries with keys starting from the given line by delta lines
+	private static <V> void shiftLines(TreeMap<Integer, V> map, int fromLine, int delta) {
+		TreeMap<Integer, V> tail = new TreeMap<Integer, V>(map.tailMap(fromLine));
+		map.keySet().removeAll(tail.keySet());
+		for (int lineNumber : tail.keySet())
+			map.put(lineNumber + delta, tail.get(lineNumber));
+	}
+	
+	// The same for diagnostics, they get their new lines
+	private static void shiftDiagnostics(TreeMap<Integer, List<Diagnostic>> map, int fromLine, int delta) {
+		TreeMap<Integer, List<Diagnostic>> tail = new TreeMap<Integer, List<Diagnostic>>(map.tailMap(fromLine));
+		map.keySet().removeAll(tail.keySet());
+		for (int lineNumber : tail.keySet()) {
+			List<Diagnostic> moved = new ArrayList<Diagnostic>(tail.get(lineNumber).size());
+			for (Diagnostic diagnostic : tail.get(lineNumber))
+				moved.add(diagnostic.atLine(lineNumber + delta));
+			map.put(lineNumber + delta, moved);
+		}
+	}
+	
+	private static ArrayList<ScriptLine> tokenize(LineBuffer text, int from, int to) {
+		ArrayList<ScriptLine> result = new ArrayList<ScriptLine>(to - from);
+		for (int i = from; i < to; ++i)
+			result.add(Lexer.tokenize(text.getLine(i + 1)));
+		return result;
+	}
+	
+	/*
+	 *  What buildTree() sees in a line: a label, the label it jumps to and where, whether it's a reliable exit
+	 *  and whether it's a jump or a response. If it doesn't change, the tree doesn't have to be rebuilt,
+	 *  so typing in a speech or any other text keeps the tree and the layout
+	 */
+	private String treeSignature(ScriptLine line) {
+		String p = line.getCode();
+		if (p.isEmpty())
+			return "";
+		if (line.getKind() == ScriptLine.LABEL)
+			return p;
+		String target = line.getJumpTarget();
+		StringBuilder signature = new StringBuilder(target == null ? "text" : target + "@" + (line.getCodeStart() + p.lastIndexOf(target)));
+		if (rules.noExit.matches(p))
+			signature.append(" exit");
+		if (rules.unreachableCode.matches(p))
+			signature.append(p.startsWith(">") ? " >" : " *");
+		return signature.toString();
+	}
+	
+	// Errors of the line = errors found by buildTree() followed by errors of the per-line checks
+	// Results of lines that were moved by an edit keep the old line in their diagnostics, they get the current one here
+	private void refreshErrors(int lineNumber) {
+		List<Diagnostic> merged = new ArrayList<Diagnostic>();
+		if (treeErrors.containsKey(lineNumber))
+			merged.addAll(treeErrors.get(lineNumber));
+		if (lineNumber >= 1 && lineNumber <= lineResults.size()) {
+			LineResult result = lineResults.get(lineNumber - 1);
+			if (result != null && result.getErrors() != null)
+				for (Diagnostic diagnostic : result.getErrors())
+					merged.add(diagnostic.atLine(lineNumber));
+		}
+		
+		if (merged.isEmpty())
+			Errors.remove(lineNumber);
+		else
+			Errors.put(lineNumber, merged);
+	}
+	
+	// Errors span the code of the line unless the columns are given
+	private void addTreeError(int lineNumber, Rule rule, Object... args) {
+		ScriptLine line = lines.get(lineNumber - 1);
+		addTreeError(lineNumber, line.getCodeStart(), line.getCodeStart() + line.getCode().length(), rule, args);
+	}
+	
+	private void addTreeError(int lineNumber, int startColumn, int endColumn, Rule rule, Object... args) {
+		
+		if (!treeErrors.containsKey(lineNumber))
+			treeErrors.put(lineNumber, new ArrayList<Diagnostic>());
+		
+		treeErrors.get(lineNumber).add(rule.diagnose(lineNumber, startColumn, endColumn, args));
+	}
+	
+	private void addError(Rule rule, Object... args) {
+		addError(currentLine.getCodeStart(), currentLine.getCodeStart() + currentLine.getCode().length(), rule, args);
+	}
+	
+	// Columns are in the text of the line, not in its code
+	private void addError(int startColumn, int endColumn, Rule rule, Object... args) {
+		current.addError(rule.diagnose(currentLineNumber, startColumn, endColumn, args));
+	}
+	
+	// The first variable spelled like `variable` in any case has to be spelled like one of the given spellings
+	private boolean checkVariable(ScriptLine line, Rule rule, String... spellings) {
+		ScriptLine.Token variable = line.findVariable(spellings[0]);
+		if (variable == null)
+			return true;
+		String spelling = variable.getText().substring(0, spellings[0].length());
+		for (String s : spellings)
+			if (spelling.equals(s))
+				return true;
+		addError(variable.getStart(), variable.getStart() + spelling.length(), rule);
+		return false;
+	}
+	
+	private void analyseLine(int lineNumber) {
+		current = new LineResult();
+		currentLine = lines.get(lineNumber - 1);
+		currentLineNumber = lineNumber;
+		lineResults.set(lineNumber - 1, current);
+		
+		checkLine(lineNumber);
+		
+		if (current.getNote() != null)
+			Notes.put(lineNumber, current.getNote());
+		else
+			Notes.remove(lineNumber);
+		refreshErrors(lineNumber);
+	}
+	
+	private void checkLine(int lineNumber) {
+		ScriptLine line = lines.get(lineNumber - 1);
+		int kind = line.getKind();
+		int codeStart = line.getCodeStart();
+		Matcher m;
+		
+		String comment = line.getComment();
+		if (comment != null) {
+			if (rules.todo.reset(comment).find())
+				current.setNote("TODO");
+			if (rules.note.reset(comment).find())
+				current.setNote("NOTE");
+		}
+		
+		// Code of the line without comments
+		String str = line.getCode();
+		
+		// Saving the current label to allow aliasname only before the first label
+		String currentLabel = "";
+		if (kind == ScriptLine.LABEL)
+			currentLabel = str;
+		
+		if (str.isEmpty())
+			return;
+		
+		if (kind == ScriptLine.COMMAND && !rules.commandSymbols.matches(str)) {
 			
-			m = (Pattern.compile("\\* aliasname <([\\w]+)> <([\\w\\s]+)>")).matcher(str);
-			if (m.find()) { 
-				npc_names.add(m.group(1));
-				npc_names.add(m.group(2));
-				if (!currentLabel.isEmpty())
-					addError(lineNumber, "Error: having 'aliasname' in the middle of the script");
-				continue;
+			if (rules.specialCommand.reset(str).matches()) {
+				// These commands may have some very rare symbols in their arguments, and I don't want to 
+				// add those very specific symbols into a common whitelist used by all other commands
+				// Instead, those symbols will be treated by the regular expression of those commands 
 			}
-			
-			// " : "
-			m = (Pattern.compile("\\s:\\s")).matcher(str);
-			if (m.find()) { 
-				addError(lineNumber, "Error: ':' shouldn't be surrounded by two spaces");
-				continue;
+			else {
+				addError(rules.commandSymbols);
+				return;
 			}
-			
-			// "Text:Text" instead of "Name: Text" or "Text :Label" i.e. : should always has at least space around
-			// digits added to prevent shooting at <-1:10> alike constructions, used by hasitem? command
-			m = (Pattern.compile("[^\\s\\d]:[^\\s\\d]")).matcher(str);
-			if (m.find()) { 
-				addError(lineNumber, "Error: at least one space must be present near ':'");
-				continue;
+		}
+		if (kind == ScriptLine.CONDITION && !rules.conditionSymbols.matches(str)) {
+			addError(rules.conditionSymbols);
+			return;
+		}
+		
+		
+		m = rules.aliasname.matcher(str);
+		if (m.find()) { 
+			current.addFact(LineResult.ALIAS, m.group(1));
+			current.addFact(LineResult.ALIAS, m.group(2));
+			if (!currentLabel.isEmpty())
+				addError(rules.aliasname);
+			return;
+		}
+		
+		// " : "
+		m = rules.colonSpaces.matcher(str);
+		if (m.find()) { 
+			addError(codeStart + m.start(), codeStart + m.end(), rules.colonSpaces);
+			return;
+		}
+		
+		// "Text:Text" instead of "Name: Text" or "Text :Label" i.e. : should always has at least space around
+		// digits added to prevent shooting at <-1:10> alike constructions, used by hasitem? command
+		m = rules.colonNoSpace.matcher(str);
+		if (m.find()) { 
+			addError(codeStart + m.start(), codeStart + m.end(), rules.colonNoSpace);
+			return;
+		}
+		
+		// ">Text" instead of "> Text"
+		m = rules.responseSpace.matcher(str);
+		if (m.find()) { 
+			addError(codeStart + m.start(), codeStart + m.end(), rules.responseSpace);
+			return;
+		}
+		
+		// "> Text" or "? condition" with missing :Label at the end
+		if (kind == ScriptLine.RESPONSE || kind == ScriptLine.CONDITION) {
+			if (line.getLabelTarget() == null) {
+				addError(rules.missingLabel);
+				return;
 			}
-			
-			// ">Text" instead of "> Text"
-			m = (Pattern.compile("^\\s*>[^\\s]")).matcher(str);
-			if (m.find()) { 
-				addError(lineNumber, "Error: > should be followed by space");
-				continue;
+		}
+		
+		// Invalid symbols in Responses, applies the same rules as for NPC Speech
+		if (kind == ScriptLine.RESPONSE) {
+			int beginIndex = str.lastIndexOf('|') + 1;
+			if (beginIndex == 0)
+				++beginIndex;
+			int endIndex = str.lastIndexOf(':');
+			if (!rules.responseSymbols.matches(str.subSequence(beginIndex, endIndex))) {
+				addError(rules.responseSymbols);
+				return;
 			}
+		}
+		
+		// Checking multi-conditional lines: `? command1 args ([|&^] command2 args...) :Label`
+		if (kind == ScriptLine.CONDITION) {
+			if (!parse(str.substring(1, str.length() - line.getLabelTarget().length() - 1), true, true))
+				return;
+		}
+		
+		// Check code between pipelines in Optional Responses
+		if (kind == ScriptLine.RESPONSE) {
+			int pipes = line.count(ScriptLine.Token.PIPE);
+			if (pipes >= 2 && !parse(line.getText().substring(line.first(ScriptLine.Token.PIPE).getEnd(), line.last(ScriptLine.Token.PIPE).getStart()), true, true))
+				return;
 			
-			// "> Text" or "? condition" with missing :Label at the end
-			m = (Pattern.compile("^>.*|^\\?.*")).matcher(str);
-			if (m.find()) {
-				if (!str.matches(".*:\\w+$")) {
-					addError(lineNumber, "Error: missing label");
-					continue;
-				}
+			// Missed pipe in Optional Responses
+			if (pipes == 1) {
+				addError(rules.missingPipe);
+				return;
 			}
-			
-			// Invalid symbols in Responses, applies the same rules as for NPC Speech
-			if (str.startsWith(">")) {
-				int beginIndex = str.lastIndexOf('|') + 1;
-				if (beginIndex == 0)
-					++beginIndex;
-				int endIndex = str.lastIndexOf(':');
-				if (!str.substring(beginIndex, endIndex).matches(ValidSpeechText.pattern())) {
-					addError(lineNumber, "Error: inappropriate symbol(s) in Response");
-					continue;
+		}
+		
+		
+		// Missing command after asterisk\?
+		if ((kind == ScriptLine.COMMAND || kind == ScriptLine.CONDITION) && str.length() == 1) { 
+			addError(rules.missingCommand);
+			return;
+		}
+		
+		// More than 1 space after asterisk\?
+		m = rules.asteriskSpaces.matcher(str);
+		if (m.find()) { 
+			addError(codeStart + m.start(), codeStart + m.end(), rules.asteriskSpaces);
+			return;
+		}
+		
+		// `*command` ~ missed space after asterisk
+		m = rules.asteriskNoSpace.matcher(str);
+		if (m.find()) {
+			addError(codeStart + m.start(), codeStart + m.end(), rules.asteriskNoSpace, m.group());
+			return;
+		}
+		
+		// TODO this check most likely can be rewritten in a better way
+		// no :Label for commands that use them, i.e. commands with ?:  "* commandname? <args> :Label"
+		m = rules.commandLabel.matcher(str);
+		if (m.find()) {
+			String name = m.group(1);
+			Command c = pscript.findCommand(name);
+			if (c != null) {
+				if (c.isConditional() && line.getLabelTarget() == null) {
+					addError(rules.commandLabel, name);
+					return;
 				}
+			} else {
+				// unknown commands were already caught earlier
 			}
-			
-			// Checking multi-conditional lines: `? command1 args ([|&^] command2 args...) :Label`
-			m = (Pattern.compile("^\\?(.*):\\w+$")).matcher(str);
-			if (m.find()) {
-				if (!parse(m.group(1), true, true, lineNumber))
-					continue;
-			}
-			
-			// Check code between pipelines in Optional Responses
-			m = (Pattern.compile("(?<=\\|)(.*)(?=\\|)")).matcher(str);
-			if (m.find() && str.startsWith(">")) {
-				if (!parse(m.group(1), true, true, lineNumber))
-					continue;
-			}
-			
-			// Missed pipe in Optional Responses
-			m = (Pattern.compile("\\|(.*\\|)?")).matcher(str);
-			if (m.find() && str.startsWith(">") && m.group(1) == null) {
-				addError(lineNumber, "Error: second pipe symbol is missing in the Optional Response");
-				continue;
+		}
+		
+		
+		// Unknown command OR invalid arguments
+		m = rules.commandExpression.reset(str);
+		if (m.find()) {
+			// such a spike was made because hasItem contains ':' in its argument and has a :label at the end 
+			// this regexp either goes up to the latest ':' in the line or to the end of the line if none ':' was found
+			String expression;
+			// This 'if' block is used because of '|' operation in RegExp, it either returns groups 1-2 or 3-4
+			if (m.group(1) != null) {
+				expression = m.group(1);
+			} else {
+				expression = m.group(2);
 			}
-			
-			
-			// Missing command after asterisk\?
-			m = (Pattern.compile("^[?*](.+)?")).matcher(str);
-			if (m.find() && m.group(1) == null) { 
-				addError(lineNumber, "Error: missing command after asterisk\\questionmark");
-				continue;
+			// "*:Label" - neither group has caught anything
+			if (expression == null) {
+				addError(rules.missingCommand);
+				return;
 			}
 			
-			// More than 1 space after asterisk\?
-			m = (Pattern.compile("^[?*]\\s{2,}")).matcher(str);
-			if (m.find()) { 
-				addError(lineNumber, "Error: more than 1 space after asterisk\\questionmark");
-				continue;
-			}
+			if (!parse(expression, false, false))
+				return;
+		}
+		
+
+		// uncapitalized BEGINNING and END in goto and :Labels
+		m = rules.endCase.matcher(str);
+		if (m.find() && !m.group().equals("END")) {
+			addError(codeStart + m.start(), codeStart + m.end(), rules.endCase);
+			return;
+		}
+		m = rules.beginningCase.matcher(str);
+		if (m.find() && !m.group().equals("BEGINNING")) {
+			addError(codeStart + m.start(), codeStart + m.end(), rules.beginningCase);
+			return;
+		}
+		
+		
+		// wrong capitalization in variables
+		if (!checkVariable(line, rules.playerNameCase, "$PLAYERNAME"))
+			return;
+		if (!checkVariable(line, rules.playerGenderCase, "$PLAYERGENDER", "$Playergender"))
+			return;
+		if (!checkVariable(line, rules.playerRaceCase, "$PLAYERRACE", "$Playerrace"))
+			return;
+		
+		// Unknown NPC name
+		boolean line_contains_npc_name = false;
+		if (kind == ScriptLine.SPEECH) {
+			String npc_name = line.getSpeaker().trim();
+			String emotion = ""; 
+			// TODO use this variable
 			
-			// `*command` ~ missed space after asterisk
-			m = (Pattern.compile("[?*](\\w+\\??)")).matcher(str);
-			if (m.find()) {
-				addError(lineNumber, "Error: missed space after asterisk\\questionmark in '" + m.group() + "'");
-				continue;
+			m = rules.npcName.matcher(npc_name);
+			if (m.matches()) {
+				line_contains_npc_name = true;
+				npc_name = m.group(1).trim();
+				if (m.group(2) != null)
+					emotion = m.group(2).trim();
+				current.addFact(LineResult.NPC, npc_name);
+			} else {
+				addError(codeStart, codeStart + line.getSpeaker().length(), rules.npcName);
+				return;
 			}
 			
-			// TODO this check most likely can be rewritten in a better way
-			// no :Label for commands that use them, i.e. commands with ?:  "* commandname? <args> :Label"
-			m = (Pattern.compile("\\* (\\w+\\??).*")).matcher(str);
-			if (m.find()) {
-				if (pscript.commandExists(m.group(1))) {
-					Command c = pscript.findCommand(m.group(1));
-					if (c.isConditional() && !str.matches(".*:\\w+$")) {
-						addError(lineNumber, "Error: missing label for '" + m.group(1) + "'");
-						continue;
-					}
-				} else {
-					// unknown commands were already caught earlier
-				}
+		}
+		
+		// Checking NPC speech in NPCName: `speech`
+		if (line_contains_npc_name) {
+			String speech = line.getSpeech();
+			if (speech != null && !rules.speechSymbols.matches(speech)) {
+				addError(codeStart + str.length() - speech.length(), codeStart + str.length(), rules.speechSymbols);
+				return;
 			}
-			
-			
-			// Unknown command OR invalid arguments
-			m = (Pattern.compile("\\*(.+)?(?=:)|\\*(.+)?")).matcher(str);
-			if (m.find()) {
-				// such a spike was made because hasItem contains ':' in its argument and has a :label at the end 
-				// this regexp either goes up to the latest ':' in the line or to the end of the line if none ':' was found
-				String expression;
-				// This 'if' block is used because of '|' operation in RegExp, it either returns groups 1-2 or 3-4
-				if (m.group(1) != null) {
-					expression = m.group(1);
-				} else {
-					expression = m.group(2);
+		}
+		
+		// suspicious words that passed all previous checks
+		if (kind == ScriptLine.COMMAND) // Command or Single condition
+			return;
+		if (kind == ScriptLine.CONDITION) // Multi-conditional statement
+			return;
+		if (kind == ScriptLine.RESPONSE) // Response
+			return;
+		if (kind == ScriptLine.LABEL) // Label
+			return;
+		// checking if this a part of NPC phrase: we have to go up to see if there was a speaking NPC
+		boolean NPC = line_contains_npc_name;
+		if (!line_contains_npc_name) {
+			for (int j = lineNumber-1; j > 0; --j) {
+				String s = lines.get(j - 1).getText().trim();
+				if (rules.speaker.reset(s).matches()) { // NPCName (emotion): 
+					NPC = true;
+					break;
 				}
-				
-				if (!parse(expression, false, false, lineNumber))
+				if (s.isEmpty() || rules.speechSymbols.matches(s)) // part of the speech or comment
 					continue;
+				break;
 			}
-			
-
-			// uncapitalized BEGINNING and END in goto and :Labels
-			m = (Pattern.compile("(?<=goto )[Ee][Nn][Dd]|(?<=:)[Ee][Nn][Dd]")).matcher(str);
-			if (m.find() && !m.group().equals("END")) {
-				addError(lineNumber, "Error: uncapitalized END");
-				continue;
-			}
-			m = (Pattern.compile("(?<=goto )[Bb][Ee][Gg][Ii][Nn][Nn][Ii][Nn][Gg]|(?<=:)[Bb][Ee][Gg][Ii][Nn][Nn][Ii][Nn][Gg]")).matcher(str);
-			if (m.find() && !m.group().equals("BEGINNING")) {
-				addError(lineNumber, "Error: uncapitalized BEGINNING");
-				continue;
-			}
-			
-			
-			// wrong capitalization in variables
-			m = (Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Nn][Aa][Mm][Ee]")).matcher(str);
-			if (m.find() && !m.group().equals("$PLAYERNAME")) {
-				addError(lineNumber, "Error: uncapitalized $PLAYERNAME");
-				continue;
-			}
-			m = (Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Gg][Ee][Nn][Dd][Ee][Rr]")).matcher(str);
-			if (m.find() && !(m.group().equals("$PLAYERGENDER") || m.group().equals("$Playergender"))) {
-				addError(lineNumber, "Error: use either $PLAYERGENDER or $Playergender");
-				continue;
-			}
-			m = (Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Rr][Aa][Cc][Ee]")).matcher(str);
-			if (m.find() && !(m.group().equals("$PLAYERRACE") || m.group().equals("$Playerrace"))) {
-				addError(lineNumber, "Error: use either $PLAYERRACE or $Playerrace");
+		}
+		if (!NPC) {
+			if (pscript.commandExists(str))
+				addError(rules.missedAsterisk);
+			else
+				addError(rules.strayText);
+		}
+	}
+	
+	/*
+	 *  Whole-file checks: gathers the facts of all lines in their order, 
+	 *  then checks that every activated objective/quest was completed and vice versa
+	 */
+	private void collectFacts() {
+		
+		HashSet<String> npc_names = new HashSet<String>();
+		
+		Activated_QuestIDs.clear();
+		Completed_QuestIDs.clear();
+		Activated_Objectives.clear();
+		Completed_Objectives.clear();
+		Quest_Stages.clear();
+		Quest_IDs.clear();
+		MentionedNPCs.clear();
+		aliases.clear();
+		runscripts.clear();
+		fileErrors.clear();
+		factLog.clear();
+		
+		for (int i = 0; i < lineResults.size(); ++i) {
+			if (!lineResults.get(i).hasFacts())
 				continue;
-			}
 			
-			// Unknown NPC name
-			boolean line_contains_npc_name = false;
-			m = (Pattern.compile("^[^?*>].+(?=:)")).matcher(str);
-			if (m.find()) {
-				String npc_name = m.group().trim();
-				String emotion = ""; 
-				// TODO use this variable
-				
-				if (npc_name.matches(ValidSpeechName.pattern())) {
-					m = (Pattern.compile("^([\\w\\s]+)( \\(\\w+\\))?")).matcher(npc_name);
-					if (m.find()) {
-						line_contains_npc_name = true;
-						npc_name = m.group(1).trim();
-						if (m.group(2) != null)
-							emotion = m.group(2).trim();
-						if (!npc_names.contains(npc_name)) {
-							if (!MentionedNPCs.contains(npc_name)) {
-								Log.add("Info: new NPC found '" + npc_name + "', first appearance at line " + lineNumber);
-								MentionedNPCs.add(npc_name);
+			for (LineResult.Fact fact : lineResults.get(i).getFacts()) {
+				switch (fact.kind) {
+					case LineResult.ALIAS: npc_names.add(fact.value); aliases.add(fact.value); break;
+					case LineResult.NPC:
+						if (!npc_names.contains(fact.value)) {
+							if (!MentionedNPCs.contains(fact.value)) {
+								factLog.add("Info: new NPC found '" + fact.value + "', first appearance at line " + (i + 1));
+								MentionedNPCs.add(fact.value);
 							} else {
 								// This NPC wasn't mentioned by aliasname, but we already reported this name
 							}
 						}
-					}	
-				} else {
-					addError(lineNumber, "Error: bad NPC name, or having colons (':') in speech");
-					continue;
-				}
-				
-			}
-			
-			// Checking NPC speech in NPCName: `speech`
-			if (line_contains_npc_name) {
-				m = (Pattern.compile("(?<=:).+")).matcher(str);
-				if (m.find() && !m.group().matches(ValidSpeechText.pattern())) {
-					addError(lineNumber, errInappropriateSymbol);
-					continue;
-				}
-			}
-			
-			// suspicious words that passed all previous checks
-			m = (Pattern.compile("^.+")).matcher(str);
-			if (m.find()) {
-				if (str.startsWith("*")) // Command or Single condition
-					continue;
-				if (str.startsWith("?")) // Multi-conditional statement
-					continue;
-				if (str.startsWith(">")) // Response
-					continue;
-				if (str.matches(ValidLabel.pattern())) // Label
-					continue;
-				// checking if this a part of NPC phrase: we have to go up to see if there was a speaking NPC
-				boolean NPC = line_contains_npc_name;
-				if (!line_contains_npc_name) {
-					for (int j = lineNumber-1; j > 0; --j) {
-						String s = textWithLines.get(j).trim();
-						if (s.matches(ValidSpeechName.pattern() + ":.*")) { // NPCName (emotion): 
-							NPC = true;
-							break;
-						}
-						if (s.isEmpty() || s.matches(ValidSpeechText.pattern())) // part of the speech or comment
-							continue;
-						break;
-					}
-				}
-				if (!NPC) {
-					if (pscript.commandExists(m.group()))
-						addError(lineNumber, "Error: perhaps an asterisk was missed");
-					else
-						addError(lineNumber, errInappropriateSymbol);
+					break;
+					case LineResult.QUEST_ID: Quest_IDs.add(fact.value); break;
+					case LineResult.ACTIVATED_OBJECTIVE: Activated_Objectives.add(fact.value); break;
+					case LineResult.COMPLETED_OBJECTIVE: Completed_Objectives.add(fact.value); break;
+					case LineResult.ACTIVATED_QUEST: Activated_QuestIDs.add(fact.value); break;
+					case LineResult.COMPLETED_QUEST: Completed_QuestIDs.add(fact.value); break;
+					case LineResult.QUEST_STAGE: Quest_Stages.add(Integer.parseInt(fact.value)); break;
+					case LineResult.RUNSCRIPT:
+						// `path/QuestID.pscript` or `path/QuestID.pscript goto [Label]`, as accepted by the command
+						int jump = fact.value.indexOf(" goto ");
+						if (jump == -1)
+							runscripts.add(new ScriptSymbols.Runscript(i + 1, fact.value, null));
+						else
+							runscripts.add(new ScriptSymbols.Runscript(i + 1, fact.value.substring(0, jump), fact.value.substring(jump + 6).trim()));
+					break;
 				}
 			}
 		}
 		
 		for (String task: Activated_Objectives) {
 			if (!Completed_Objectives.contains(task)) 
-				addError(-1, "Error: objective '" + task + "' was activated, but never was completed\\cancelled");			
+				fileErrors.add(rules.objectiveNotCompleted.diagnoseFile(task));			
 		}
 		for (String task: Completed_Objectives) {
 			if (!Activated_Objectives.contains(task)) 
-				addError(-1, "Error: objective '" + task + "' was completed\\cancelled, but never was activated");			
+				fileErrors.add(rules.objectiveNotActivated.diagnoseFile(task));			
 		}
 		for (String quest: Activated_QuestIDs) {
 			if (!Completed_QuestIDs.contains(quest)) 
-				addError(-1, "Error: quest '" + quest + "' was activated, but was never completed");			
+				fileErrors.add(rules.questNotCompleted.diagnoseFile(quest));			
 		}
 		for (String quest: Completed_QuestIDs) {
 			if (!Activated_QuestIDs.contains(quest)) 
-				addError(-1, "Error: quest '" + quest + "' was completed, but was never activated");			
+				fileErrors.add(rules.questNotActivated.diagnoseFile(quest));			
 		}
 		
 		String temp = "";
@@ -421,7 +823,7 @@ public class Parser {
 			temp += s + ", ";
 		if (temp.length() == 0)
 			temp = "<No QuestIDs found>  ";
-		Log.add("Info: mentioned QuestIDs = " + temp.substring(0, temp.length() - 2));
+		factLog.add("Info: mentioned QuestIDs = " + temp.substring(0, temp.length() - 2));
 		
 		// TODO make a more comfortable way to show this information?
 		temp = "";
@@ -429,117 +831,120 @@ public class Parser {
 			temp += s + ", ";
 		if (temp.length() == 0)
 			temp = "<Command activateobjective wasn't used>  ";
-		Log.add("Info: mentioned Tasks = " + temp.substring(0, temp.length() - 2));
+		factLog.add("Info: mentioned Tasks = " + temp.substring(0, temp.length() - 2));
 		
 		temp = "";
 		for (int k: Quest_Stages)
 			temp += k + ", ";
 		if (temp.length() == 0)
 			temp = "<Command queststage wasn't used>  ";
-		Log.add("Info: stages set by queststage command = " +  temp.substring(0, temp.length() - 2));
+		factLog.add("Info: stages set by queststage command = " +  temp.substring(0, temp.length() - 2));
+		
+		if (fileErrors.isEmpty())
+			Errors.remove(-1);
+		else
+			Errors.put(-1, new ArrayList<Diagnostic>(fileErrors));
+		rebuildLog();
+	}
+	
+	private void rebuildLog() {
+		Log.clear();
+		Log.addAll(treeLog);
+		Log.addAll(factLog);
 	}
 	
 	private void buildTree() {
 		
 		// Gathering all nodes in one pool
 		String label = null;
+		int labelLine = 0; // first line of the node's content
 		
-		TreeMap<Integer, String> content = new TreeMap<Integer, String>();
 		trees = new ArrayList<Node>();
 		pool = new ArrayList<Node>();
 		
 		int currentline = 0; // used to detect if we reached the end of the file
 		
-		for (int i = 1; i < textWithLines.size() + 1; ++i) {
-			String p = textWithLines.get(i);
+		for (int i = 1; i < lines.size() + 1; ++i) {
+			if (i % 1000 == 0)
+				checkCancelled();
+			ScriptLine line = lines.get(i - 1);
 			++currentline;
-			// Removing comments in content of each node 
-			p = p.replaceAll("#.*", "").trim();
-			if (p.matches(ValidLabel.pattern()) || currentline == textWithLines.size()) {
+			if (line.getKind() == ScriptLine.LABEL || currentline == lines.size()) {
 				// reached another node
 				if (label != null) {
-					DefinedLabels.add(label);
-					if (currentline == textWithLines.size())
-						content.put(currentline, p);
-					pool.add(new Node(content));
-					if (currentline == textWithLines.size())
+					// the last line of the file belongs to the last node even if it's a label
+					Node node = new Node(label, labelLine, currentline == lines.size() ? currentline : currentline - 1);
+					pool.add(node);
+					labelIndex.put(label, node); // the last node wins if the label is duplicated
+					if (currentline == lines.size())
 						break;
 				} else {
 					//shoots only once
 					//content here contains the text above the first [label]
 				}
-				label = p;
-				if (DefinedLabels.contains(label))
-					addError(currentline, "Error: duplicate label name " + label);
+				label = line.getCode();
+				labelLine = currentline;
+				if (labelIndex.containsKey(label))
+					addTreeError(currentline, rules.duplicateLabel, label);
 				if (label.equals("[BEGINNING]"))
-					addError(currentline, "Error: attempt to redefine [BEGINNING] label");
+					addTreeError(currentline, rules.redefineBeginning);
 				if (label.equals("[END]"))
-					addError(currentline, "Error: attempt to redefine [END] label");
-				
-				content = new TreeMap<Integer, String>();
-				content.put(currentline, label);
+					addTreeError(currentline, rules.redefineEnd);
 			}
-			content.put(currentline, p);
 		}
 		
-		Log.add("Info: " + pool.size() + " labels have been found");
+		treeLog.add("Info: " + pool.size() + " labels have been found");
 		if (pool.size() == 0) {
-			Log.add("Info: no labels found, exiting...");
+			treeLog.add("Info: no labels found, exiting...");
 			return;
 		}
 		
 		// Building a structured tree upon given pool
 		for(Node node: pool) 
 		{
+			checkCancelled();
+			
 			// Searching for labels in content of each node
-			for(int i : node.getContent().keySet()) 
+			for(int i = node.getFirstLine(); i <= node.getLastLine(); ++i) 
 			{
-				String s = node.getContent().get(i).trim();
-				s = s.replaceAll("goto ", ":"); // this is for catching <* goto Label> commands
-				if (s.matches(".+:\\w+$")) {
+				// either `:Label` or <* goto Label> command
+				label = lines.get(i - 1).getJumpTarget();
+				if (label != null) {
 					// Most likely we reached a label here
-					String[] arr = s.split(":");
-					label = arr[arr.length - 1];
-					String embracedLabel = "[" + label + "]";
-					
-					// Searching a child with the name=label
-					Node child = null;
-					for(int j = 0; j < pool.size(); ++j)
-						if (pool.get(j).getLabel().equals(embracedLabel))
-							child = pool.get(j);
+					Node child = labelIndex.get("[" + label + "]");
 					
 					if (child == null) {
 						// ERROR: no such label 
-						if (!(label.equals("END") || label.equals("BEGINNING")))
-							addError(i, "Error: no such label ':" + label + "'");
+						if (!(label.equals("END") || label.equals("BEGINNING"))) {
+							ScriptLine line = lines.get(i - 1);
+							int start = line.getCodeStart() + line.getCode().lastIndexOf(label);
+							addTreeError(i, start, start + label.length(), rules.unknownLabel, label);
+						}
 			
 					} else {
-						if (!node.getChildren().contains(child)) {
-							child.addFather(node);
-							node.addChild(child);
-						}
+						node.link(child);
 					}
 				}
 			}
 			
 			// Searching for nodes with missing '* goto Label' at the and
 			boolean found_reliable_exit_point = false;
-			for(int i : node.getContent().keySet()) 
+			for(int i = node.getFirstLine(); i <= node.getLastLine(); ++i) 
 			{
-				String line = node.getContent().get(i).trim();
+				String line = lines.get(i - 1).getCode();
 				if (line.isEmpty())
 					continue;
 				// seeking for either goto or reliable dialogue answer that will 100% lead us out of the current node
 				// dialogue answer must not contain conditional expression in order to be `reliable`, hehe
-				if (line.matches("^\\*\\s*goto\\s+\\w+$|^\\s*>[^|]+:(\\w+)$")) 
+				if (rules.noExit.matches(line)) 
 				{
 					found_reliable_exit_point = true;
 					break;
 				} 
 			}
 			if (!found_reliable_exit_point) {
-				int lineNumber = node.getContent().firstKey();
-				addError(lineNumber, "Error: no reliable exit point from node " + node.getLabel());
+				int lineNumber = node.getFirstLine();
+				addTreeError(lineNumber, rules.noExit, node.getLabel());
 				break;
 			}
 			
@@ -547,18 +952,18 @@ public class Parser {
 			boolean found_something = false;
 			boolean found_goto_jump = false;
 			
-			for(int currentLine : node.getContent().keySet()) 
+			for(int currentLine = node.getFirstLine(); currentLine <= node.getLastLine(); ++currentLine) 
 			{
-				String line = node.getContent().get(currentLine).trim();
+				String line = lines.get(currentLine - 1).getCode();
 				
 				if (line.isEmpty())
 					continue;
-				if (line.matches("^(\\* goto \\w+)|^>.+")) 
+				if (rules.unreachableCode.matches(line)) 
 				{
 					// No code will be executed after 'goto' jump
 					if (found_goto_jump) {
 						int unreachable_starts_at = currentLine; 
-						addError(unreachable_starts_at, "Error: the code at line " + unreachable_starts_at + " and below will never be executed");
+						addTreeError(unreachable_starts_at, rules.unreachableCode, unreachable_starts_at);
 						break;
 					}
 					if (line.startsWith("*"))
@@ -573,7 +978,7 @@ public class Parser {
 					// We get here once we found a line that was neither a response nor goto command
 					if (found_something) {
 						int unreachable_starts_at = currentLine; 
-						addError(unreachable_starts_at, "Error: the code at line " + unreachable_starts_at + " and below will never be executed");
+						addTreeError(unreachable_starts_at, rules.unreachableCode, unreachable_starts_at);
 						break;
 					}
 				}
@@ -588,52 +993,57 @@ public class Parser {
 				trees.add(node);
 		}
 		
-		Log.add("Info: " + trees.size() + " trees have been found");
+		treeLog.add("Info: " + trees.size() + " trees have been found");
 		
 	}
 	
-	private boolean parse(String expression, boolean isConditional, boolean isMultiConditional, int lineNumber) {
+	private boolean parse(String expression, boolean isConditional, boolean isMultiConditional) {
 		
 		expression = expression.trim();
 		
 		// In case the expression was multi-conditional
-		String[] expressions = expression.split("[&|^]");
+		String[] expressions = rules.conditionSeparator.split(expression);
 		
 		//if (multiconditional && expressions.length < 2) {
 		//	MainWindow.pushToLog("Error: multi-conditional check must have at least 2 conditions at line " + linenumber);
 		//	return false;
 		//}
 		if (!isMultiConditional && expressions.length > 1) {
-			addError(lineNumber, "Error: only one command is allowed after the asterisk");
+			addError(rules.singleCommand);
 			return false;
 		}
 		
 		for (String exp : expressions) {
 			exp = exp.trim();
-			String command = exp.split(" ")[0];
-			if (pscript.commandExists(command)) 
+			int space = exp.indexOf(' ');
+			String command = space == -1 ? exp : exp.substring(0, space);
+			Command c = pscript.findCommand(command);
+			if (c != null) 
 			{
-				Command c = pscript.findCommand(command);
-				if (c.hasArguments() && exp.indexOf(' ') == -1) {
-					addError(lineNumber, "Error: command '" + command + "' requires argument(s)");
+				if (c.hasArguments() && space == -1) {
+					addError(rules.commandArguments, command);
 					return false;
 				}
 				
 				String args = "";
-				if (exp.contains(" "))
-					args = exp.substring(exp.indexOf(' '), exp.length()).trim();
+				if (space != -1)
+					args = exp.substring(space).trim();
 					
 				if (!c.isConditional() && isConditional) {
-					addError(lineNumber, "Error: command '" + command + "' is not suitable for using in conditional response");
+					addError(rules.conditionalCommand, command);
 					return false;
 				}
 				if (!c.accepts(args)) {
-					addError(lineNumber, "Error: invalid argument '" + args + "' for " + command + "'");
+					addError(rules.invalidArgument, args, command);
 					return false;
 				}
 				
+				// The target is checked by the ProjectIndex, it needs the other scripts
+				if (c.getName().equals("runscript"))
+					current.addFact(LineResult.RUNSCRIPT, args);
+				
 				// For checking if objectives and quests were completed or not
-				Matcher m = (Pattern.compile("\\w+\\?? <?(" + Syntax.QuestID_pattern + ")>?(.*)")).matcher(expression);
+				Matcher m = rules.questArguments.reset(expression);
 				if (m.find()) {
 					
 					String FirstArgument = m.group(1); 	// usually QuestID, but not for all commands. Doesn't work for argument of hasitem, i.e. <x:y>
@@ -643,27 +1053,27 @@ public class Parser {
 					} 
 					
 					switch (c.getName()) {
-						case "activateobjective": Activated_Objectives.add(SecondArgument); Quest_IDs.add(FirstArgument); break;
-						case "completeobjective": Completed_Objectives.add(SecondArgument); Quest_IDs.add(FirstArgument); break;
-						case "cancelobjective": Completed_Objectives.add(SecondArgument); Quest_IDs.add(FirstArgument); break;
-						case "activatequest": Activated_QuestIDs.add(FirstArgument); Quest_IDs.add(FirstArgument); break;
-						case "completequest": Completed_QuestIDs.add(FirstArgument); Quest_IDs.add(FirstArgument); break;
+						case "activateobjective": current.addFact(LineResult.ACTIVATED_OBJECTIVE, SecondArgument); current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "completeobjective": current.addFact(LineResult.COMPLETED_OBJECTIVE, SecondArgument); current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "cancelobjective": current.addFact(LineResult.COMPLETED_OBJECTIVE, SecondArgument); current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "activatequest": current.addFact(LineResult.ACTIVATED_QUEST, FirstArgument); current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "completequest": current.addFact(LineResult.COMPLETED_QUEST, FirstArgument); current.addFact(LineResult.QUEST_ID, FirstArgument); break;
 						case "queststage": 
 							int stage = Integer.parseInt(SecondArgument);
 							if (stage > 9000)
-								Completed_QuestIDs.add(FirstArgument);
-							Quest_Stages.add(stage);
-							Quest_IDs.add(FirstArgument);
+								current.addFact(LineResult.COMPLETED_QUEST, FirstArgument);
+							current.addFact(LineResult.QUEST_STAGE, String.valueOf(stage));
+							current.addFact(LineResult.QUEST_ID, FirstArgument);
 						break;
-						case "queststage?": Quest_IDs.add(FirstArgument); break;
-						case "objectivecomplete?": Quest_IDs.add(FirstArgument); break;
-						case "questactive?": Quest_IDs.add(FirstArgument); break;
-						case "activateKillObjective": Quest_IDs.add(FirstArgument); break;
+						case "queststage?": current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "objectivecomplete?": current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "questactive?": current.addFact(LineResult.QUEST_ID, FirstArgument); break;
+						case "activateKillObjective": current.addFact(LineResult.QUEST_ID, FirstArgument); break;
 					}
 				}
 			} 
 			else {
-				addError(lineNumber, "Error: unknown command '" + command + "'");
+				addError(rules.unknownCommand, command);
 				return false;
 			}
 		}
@@ -676,7 +1086,7 @@ public class Parser {
 		return trees;
 	}
 
-	public HashMap<Integer, String> getText() {
+	public LineBuffer getText() {
 		return textWithLines;
 	}
 
@@ -0,0 +1,177 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ *  Checks many scripts at once on a fork-join pool. Everything a check needs lives in its Parser,
+ *  and every worker thread has a Parser of its own, so files are checked in parallel without locks.
+ *  The only shared things are the Syntax and its commands, which don't change.
+ *  Results are collected into one ProjectReport, in the order of the given files.
+ *  index() puts the symbols of the checked scripts into a ProjectIndex for the checks across files.
+ *  With an AnalysisCache, scripts that were checked before and didn't change aren't parsed again.
+ *  With Metrics, the reads of the files, the cache and the passes of all parsers are timed together.
+ */
+public class ProjectAnalyser {
+
+	private final int threads;
+	private AnalysisCache cache;
+	private Metrics metrics = Metrics.DISABLED;
+
+	// A parser is reused for all files checked by its thread, setText() clears what was left from the previous file
+	private final ThreadLocal<Parser> parsers = new ThreadLocal<Parser>() {
+		@Override
+		protected Parser initialValue() {
+			Parser parser = new Parser();
+			parser.setLayoutNeeded(false); // nobody draws the trees
+			parser.setMetrics(metrics);
+			return parser;
+		}
+	};
+
+	public ProjectAnalyser() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public ProjectAnalyser(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	// null turns the cache off, it's off by default
+	public void setCache(AnalysisCache cache) {
+		this.cache = cache;
+	}
+
+	// Has to be set before the first analyse()
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public ProjectReport analyse(List<File> files) {
+		ProjectReport.Entry[] entries = new ProjectReport.Entry[files.size()];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Check(files, entries, 0, files.size()));
+		}
+		finally {
+			pool.shutdown();
+		}
+		if (cache != null)
+			cache.evict();
+		return new ProjectReport(Arrays.asList(entries));
+	}
+
+	/*
+	 *  Index of the checked scripts and of the scripts they run, directly or through other scripts.
+	 *  Scripts from outside the report (e.g. ../CK_Library) are analysed only for their symbols.
+	 */
+	public ProjectIndex index(ProjectReport report) {
+		ProjectIndex index = new ProjectIndex();
+		Set<File> tried = new HashSet<File>();
+		List<ProjectReport.Entry> entries = report.getEntries();
+		while (!entries.isEmpty()) {
+			for (ProjectReport.Entry entry : entries) {
+				tried.add(ProjectIndex.key(entry.getFile()));
+				if (entry.getResult() != null)
+					index.update(entry.getFile(), entry.getResult().getSymbols());
+			}
+
+			List<File> missing = new ArrayList<File>();
+			for (File file : index.getMissingScripts())
+				if (tried.add(file))
+					missing.add(file);
+			entries = analyse(missing).getEntries();
+		}
+		return index;
+	}
+
+	// The file itself, or the scripts in the directory and below it, sorted by path
+	public static List<File> findScripts(File root) throws IOException {
+		final List<File> found = new ArrayList<File>();
+		if (root.isFile()) {
+			found.add(root);
+			return found;
+		}
+
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && file.getFileName().toString().toLowerCase().endsWith(".pscript"))
+					found.add(file.toFile());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		Collections.sort(found);
+		return found;
+	}
+
+	private ProjectReport.Entry check(File file) {
+		try {
+			Metrics.Timer timer = metrics.start("file read");
+			LineBuffer text = new ScriptReader(file).getText();
+			timer.stop();
+			if (cache == null)
+				return new ProjectReport.Entry(file, parse(text), null);
+
+			timer = metrics.start("cache read");
+			String key = cache.key(text);
+			AnalysisResult result = cache.get(key, text, false);
+			timer.stop();
+			if (result == null) {
+				result = parse(text);
+				timer = metrics.start("cache write");
+				cache.put(key, result);
+				timer.stop();
+			}
+			return new ProjectReport.Entry(file, result, null);
+		}
+		catch (IOException e) {
+			return new ProjectReport.Entry(file, null, e);
+		}
+	}
+
+	private AnalysisResult parse(LineBuffer text) {
+		Parser parser = parsers.get();
+		parser.setText(text);
+		return parser.snapshot();
+	}
+
+	// Files [from, to) are split in halves until every task has one file
+	private class Check extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final List<File> files;
+		private final ProjectReport.Entry[] entries;
+		private final int from, to;
+
+		Check(List<File> files, ProjectReport.Entry[] entries, int from, int to) {
+			this.files = files;
+			this.entries = entries;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1) {
+				if (to > from)
+					entries[from] = check(files.get(from));
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new Check(files, entries, from, middle), new Check(files, entries, middle, to));
+		}
+	}
+}
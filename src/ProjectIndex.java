@@ -0,0 +1,206 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ *  Symbols of all scripts of a project (a quest folder and the scripts it runs), kept up to date file by file.
+ *  A script that changed is put again with update(), which touches only the entries of that script
+ *  and tells which scripts have to be checked again: the script itself and the scripts that run it.
+ *  check() resolves `* runscript path/QuestID.pscript goto [Label]` of a script against the others.
+ *
+ *  Files are the keys of the index, they are made absolute and normalized by key().
+ *  Whether a script that is run but wasn't indexed exists on the drive is looked up once, when update() first meets it,
+ *  so check() doesn't touch the drive. A script created later is seen once the folder is indexed again.
+ *  Not thread-safe, the index is used by one thread at a time.
+ */
+public class ProjectIndex {
+
+	private final HashMap<File, ScriptSymbols> scripts = new HashMap<File, ScriptSymbols>();
+	private final HashMap<File, Set<File>> callers = new HashMap<File, Set<File>>(); // script -> scripts running it
+	private final HashMap<String, Set<File>> questFiles = new HashMap<String, Set<File>>();
+	private final HashMap<String, Set<File>> objectiveFiles = new HashMap<String, Set<File>>();
+	private final HashMap<String, Set<File>> aliasFiles = new HashMap<String, Set<File>>();
+	private final HashMap<File, Boolean> targetExists = new HashMap<File, Boolean>(); // runscript target -> is a file on the drive
+
+	private final RuleSet rules = new RuleSet();
+
+	public static File key(File file) {
+		return file.getAbsoluteFile().toPath().normalize().toFile();
+	}
+
+	// Script a runscript path of the given script points to, paths are relative to the folder of the script
+	public static File resolve(File script, String path) {
+		return key(new File(key(script).getParentFile(), path));
+	}
+
+	/*
+	 *  Puts new symbols of the script, replacing what was known about it.
+	 *  Returns the scripts whose runscript checks may have changed because of it.
+	 */
+	public Set<File> update(File file, ScriptSymbols symbols) {
+		file = key(file);
+		unlink(file);
+		scripts.put(file, symbols);
+
+		for (ScriptSymbols.Runscript runscript : symbols.getRunscripts()) {
+			File target = resolve(file, runscript.path);
+			add(callers, target, file);
+			if (!targetExists.containsKey(target))
+				targetExists.put(target, target.isFile());
+		}
+		for (String questId : symbols.getQuestIds())
+			add(questFiles, questId, file);
+		for (String objective : symbols.getObjectives())
+			add(objectiveFiles, objective, file);
+		for (String alias : symbols.getAliases())
+			add(aliasFiles, alias, file);
+
+		return affected(file);
+	}
+
+	// Forgets the script, e.g. when it was deleted. Returns the scripts that have to be checked again
+	public Set<File> remove(File file) {
+		file = key(file);
+		unlink(file);
+		scripts.remove(file);
+		Set<File> affected = affected(file);
+		affected.remove(file);
+		return affected;
+	}
+
+	private Set<File> affected(File file) {
+		Set<File> affected = new LinkedHashSet<File>();
+		affected.add(file);
+		Set<File> running = callers.get(file);
+		if (running != null)
+			affected.addAll(running);
+		return affected;
+	}
+
+	// Removes the entries made by the previous symbols of the script
+	private void unlink(File file) {
+		ScriptSymbols old = scripts.get(file);
+		if (old == null)
+			return;
+		for (ScriptSymbols.Runscript runscript : old.getRunscripts())
+			remove(callers, resolve(file, runscript.path), file);
+		for (String questId : old.getQuestIds())
+			remove(questFiles, questId, file);
+		for (String objective : old.getObjectives())
+			remove(objectiveFiles, objective, file);
+		for (String alias : old.getAliases())
+			remove(aliasFiles, alias, file);
+	}
+
+	private static <K> void add(Map<K, Set<File>> map, K key, File file) {
+		Set<File> files = map.get(key);
+		if (files == null) {
+			files = new HashSet<File>(2);
+			map.put(key, files);
+		}
+		files.add(file);
+	}
+
+	private static <K> void remove(Map<K, Set<File>> map, K key, File file) {
+		Set<File> files = map.get(key);
+		if (files == null)
+			return;
+		files.remove(file);
+		if (files.isEmpty())
+			map.remove(key);
+	}
+
+	/*
+	 *  Errors of the runscript commands of the script. A script that isn't in the index
+	 *  but exists on the drive is accepted as it is, its labels can't be checked.
+	 *  The symbols don't know where the path is in the line, errors have no columns.
+	 */
+	public Diagnostics check(File file) {
+		TreeMap<Integer, List<Diagnostic>> errors = new TreeMap<Integer, List<Diagnostic>>();
+		ScriptSymbols symbols = scripts.get(key(file));
+		if (symbols == null)
+			return new Diagnostics();
+
+		for (ScriptSymbols.Runscript runscript : symbols.getRunscripts()) {
+			File target = resolve(file, runscript.path);
+			ScriptSymbols called = scripts.get(target);
+			Diagnostic error = null;
+			if (called == null) {
+				if (!exists(target))
+					error = rules.unknownScript.diagnose(runscript.line, -1, -1, runscript.path);
+			}
+			else if (runscript.label != null && !called.hasLabel(runscript.label))
+				error = rules.unknownScriptLabel.diagnose(runscript.line, -1, -1, runscript.label, runscript.path);
+
+			if (error != null) {
+				if (!errors.containsKey(runscript.line))
+					errors.put(runscript.line, new ArrayList<Diagnostic>());
+				errors.get(runscript.line).add(error);
+			}
+		}
+		return new Diagnostics(errors);
+	}
+
+	// Scripts run by the indexed ones that exist on the drive but weren't indexed yet
+	public Set<File> getMissingScripts() {
+		Set<File> missing = new LinkedHashSet<File>();
+		for (File target : callers.keySet())
+			if (!scripts.containsKey(target) && exists(target))
+				missing.add(target);
+		return missing;
+	}
+
+	// Indexed, or found on the drive when it was first run by an indexed script
+	private boolean exists(File target) {
+		if (scripts.containsKey(target))
+			return true;
+		Boolean exists = targetExists.get(target);
+		return exists != null && exists;
+	}
+
+	// Rules of check(), for counting their hits
+	public RuleSet getRules() {
+		return rules;
+	}
+
+	public boolean contains(File file) {
+		return scripts.containsKey(key(file));
+	}
+
+	// null if the script isn't in the index
+	public ScriptSymbols getSymbols(File file) {
+		return scripts.get(key(file));
+	}
+
+	public Set<File> getFiles() {
+		return Collections.unmodifiableSet(scripts.keySet());
+	}
+
+	public Set<File> getCallers(File file) {
+		return files(callers, key(file));
+	}
+
+	public Set<File> findQuest(String questId) {
+		return files(questFiles, questId);
+	}
+
+	public Set<File> findObjective(String objective) {
+		return files(objectiveFiles, objective);
+	}
+
+	public Set<File> findAlias(String alias) {
+		return files(aliasFiles, alias);
+	}
+
+	private static <K> Set<File> files(Map<K, Set<File>> map, K key) {
+		Set<File> files = map.get(key);
+		return files == null ? Collections.<File>emptySet() : Collections.unmodifiableSet(files);
+	}
+}
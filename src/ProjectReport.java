@@ -0,0 +1,74 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ *  Results of all scripts of a project, in the order the files were given to the ProjectAnalyser.
+ *  Every file has either the result of its analysis or the reason it couldn't be read.
+ */
+public class ProjectReport {
+
+	public static class Entry {
+
+		private final File file;
+		private final AnalysisResult result;
+		private final IOException failure;
+
+		public Entry(File file, AnalysisResult result, IOException failure) {
+			this.file = file;
+			this.result = result;
+			this.failure = failure;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		// null if the file couldn't be read
+		public AnalysisResult getResult() {
+			return result;
+		}
+
+		public IOException getFailure() {
+			return failure;
+		}
+
+		public int getErrorCount() {
+			int count = 0;
+			if (result != null)
+				count += result.Errors.size();
+			return count;
+		}
+	}
+
+	private final List<Entry> entries;
+
+	public ProjectReport(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	// Files that were read and checked
+	public int getFileCount() {
+		int count = 0;
+		for (Entry entry : entries)
+			if (entry.getResult() != null)
+				++count;
+		return count;
+	}
+
+	public int getFailedCount() {
+		return entries.size() - getFileCount();
+	}
+
+	public int getErrorCount() {
+		int count = 0;
+		for (Entry entry : entries)
+			count += entry.getErrorCount();
+		return count;
+	}
+}
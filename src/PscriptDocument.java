@@ -1,16 +1,25 @@
 import java.awt.Color;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
-import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
 import javax.swing.text.AttributeSet;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultEditorKit;
 import javax.swing.text.DefaultStyledDocument;
 import javax.swing.text.Element;
 import javax.swing.text.MutableAttributeSet;
+import javax.swing.text.Segment;
 import javax.swing.text.SimpleAttributeSet;
 import javax.swing.text.StyleConstants;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
 
 public class PscriptDocument extends DefaultStyledDocument  {
 
@@ -18,8 +27,19 @@ public class PscriptDocument extends DefaultStyledDocument  {
 	
 	private DefaultStyledDocument doc;
 	    private Element rootElement;
-	    private MutableAttributeSet normal, keyword, comment, quote, searchQuery, searchQueryNoBackground;
+	    private MutableAttributeSet normal, keyword, comment, quote;
 	    private Set<String> keywords;
+	    
+	    private ChangedLines changedLines; // lines changed since the last call of takeChangedLines()
+	    
+	    private static final int MARGIN = 50; // lines highlighted above and below the visible ones
+	    private static final int KEYWORD = 0, QUOTE = 1, COMMENT = 2;
+	    private MutableAttributeSet[] styles;
+	    private ArrayList<int[]> tokenCache = new ArrayList<int[]>(); // highlighted spans of each line, null if the line wasn't highlighted yet
+	    private int firstVisible = 0, lastVisible = 0;
+	    private Segment segment = new Segment();
+	    private boolean undoing; // changes made by undo and redo aren't recorded again
+	    private OccurrenceIndex occurrenceIndex = new OccurrenceIndex(this);
 
 	    public PscriptDocument() {
 	        doc = this;
@@ -41,16 +61,13 @@ public class PscriptDocument extends DefaultStyledDocument  {
 	        quote = new SimpleAttributeSet();
 	        StyleConstants.setForeground(quote, Color.red);
 
-	        searchQuery = new SimpleAttributeSet();
-	        StyleConstants.setBackground(searchQuery, new Color(155, 255, 155));
 	        
-	        searchQueryNoBackground = new SimpleAttributeSet();
-	        StyleConstants.setBackground(searchQueryNoBackground, new Color(255, 255, 255));
 	        
+	        styles = new MutableAttributeSet[] {keyword, quote, comment};
+	        tokenCache.add(null); // an empty document has one line
 	        
 	        keywords = new HashSet<String>();
-	        Syntax pscript = new Syntax();
-	        for (Command c : pscript.commands)
+	        for (Command c : Syntax.getInstance().commands)
 	        	keywords.add(c.getName());
 	        
 	        keywords.add("$Playerrace");
@@ -61,199 +78,276 @@ public class PscriptDocument extends DefaultStyledDocument  {
 	    }
 
 	    /*
-	     *  Override to apply syntax highlighting after the document has been updated
+	     *  New document with the given text. Nothing is highlighted yet,
+	     *  the editor asks for the lines it shows once the document is swapped in
+	     */
+	    public static PscriptDocument load(String text)
+	    {
+	    	PscriptDocument doc = new PscriptDocument();
+	    	try {
+	    		doc.fill(text);
+	    	}
+	    	catch (BadLocationException e) {
+	    		e.printStackTrace();
+	    	}
+	    	return doc;
+	    }
+	    
+	    private void fill(String text) throws BadLocationException
+	    {
+	    	super.insertString(0, text, null);
+	    	changedLines = null; // the loaded text is analysed as a whole, the first edit shouldn't be merged with it
+	    }
+
+	    /*
+	     *  Override to highlight the edited lines if they are visible
 	     */
 	    public void insertString(int offset, String str, AttributeSet a) throws BadLocationException
 	    {
 	        super.insertString(offset, str, a);
-	        processChangedLines(offset, str.length());
+	        if (!undoing && str.length() > 0)
+	        	fireUndoableEditUpdate(new UndoableEditEvent(this, new TextEdit(offset, str, true)));
+	        highlightVisibleLines();
 	    }
 
 	    /*
-	     *  Override to apply syntax highlighting after the document has been updated
+	     *  Override to highlight the edited lines if they are visible
 	     */
 	    public void remove(int offset, int length) throws BadLocationException
 	    {
+	    	String removed = doc.getText(offset, length);
 	    	super.remove(offset, length);
-	    	processChangedLines(offset, 0);
+	    	if (!undoing && length > 0)
+	        	fireUndoableEditUpdate(new UndoableEditEvent(this, new TextEdit(offset, removed, false)));
+	    	highlightVisibleLines();
 	    }
-
+	    
 	    /*
-	     *  Determine how many lines have been changed,
-	     *  then apply highlighting to each line
+	     *  Every change of the text ends up here, undo and redo too.
+	     *  The lines replaced by the change are remembered for the analysis and lose their cached tokens
 	     */
-	    public void processChangedLines(int offset, int length) throws BadLocationException
+	    protected void fireInsertUpdate(DocumentEvent e)
 	    {
-	        String content = doc.getText(0, doc.getLength());
-
-	        //  The lines affected by the latest document update
-
-	        int startLine = rootElement.getElementIndex(offset);
-	        int endLine = rootElement.getElementIndex(offset + length);
-
-	        if (startLine > endLine)
-	            startLine = endLine;
-
-	        //  Do the actual highlighting
-
-	        for (int i = startLine; i <= endLine; i++)
-	        {
-	            applyHighlighting(content, i);
-	        }
-
-	        
+	    	linesReplaced(e);
+	    	super.fireInsertUpdate(e);
 	    }
-
+	    
+	    protected void fireRemoveUpdate(DocumentEvent e)
+	    {
+	    	linesReplaced(e);
+	    	super.fireRemoveUpdate(e);
+	    }
+	    
+	    private void linesReplaced(DocumentEvent e)
+	    {
+	    	//  Lines of the changed text, as they are now
+	    	int start = rootElement.getElementIndex(e.getOffset());
+	    	int newEnd = e.getType() == DocumentEvent.EventType.INSERT ? rootElement.getElementIndex(e.getOffset() + e.getLength()) : start;
+	    	int delta = 0;
+	    	
+	    	//  The line where the text was split or joined keeps its element, so it isn't always a part of the element change
+	    	DocumentEvent.ElementChange change = e.getChange(rootElement);
+	    	if (change != null) {
+	    		start = Math.min(start, change.getIndex());
+	    		newEnd = Math.max(newEnd, change.getIndex() + change.getChildrenAdded().length - 1);
+	    		delta = change.getChildrenAdded().length - change.getChildrenRemoved().length;
+	    	}
+	    	int oldEnd = newEnd - delta;
+	    	
+	    	ChangedLines edit = new ChangedLines(start, oldEnd, newEnd);
+	    	changedLines = changedLines == null ? edit : changedLines.merge(edit);
+	    	
+	    	tokenCache.subList(start, oldEnd + 1).clear();
+	    	tokenCache.addAll(start, Collections.<int[]>nCopies(newEnd - start + 1, null));
+	    	occurrenceIndex.linesReplaced(start, oldEnd, newEnd);
+	    }
+	    
 	    /*
-	     *  Parse the line to determine the appropriate highlighting
+	     *  Only changes of the text can be undone, see TextEdit. Edits of the document itself replay changes of its elements,
+	     *  which goes wrong once highlighting has split the elements in between, and highlighting happens at any time now,
+	     *  e.g. when the editor is scrolled. Undone lines are highlighted again anyway
 	     */
-	    private void applyHighlighting(String content, int line) throws BadLocationException
+	    protected void fireUndoableEditUpdate(UndoableEditEvent e)
 	    {
-	        int startOffset = rootElement.getElement( line ).getStartOffset();
-	        int endOffset = rootElement.getElement( line ).getEndOffset() - 1;
-
-	        int lineLength = endOffset - startOffset;
-	        int contentLength = content.length();
-
-	        if (endOffset >= contentLength)
-	            endOffset = contentLength - 1;
-
-	        //  set normal attributes for the line
-	        doc.setCharacterAttributes(startOffset, lineLength, normal, true);
-
-	        //  check for single line comment
-	        int index = content.indexOf(getSingleLineDelimiter(), startOffset);
-	        if ( (index > -1) && (index < endOffset) )
-	        {
-	            doc.setCharacterAttributes(index, endOffset - index + 1, comment, false);
-	            endOffset = index - 1;
-	        }
-
-	        //  check for tokens
-	        checkForTokens(content, startOffset, endOffset);
+	    	if (e.getEdit() instanceof TextEdit)
+	    		super.fireUndoableEditUpdate(e);
 	    }
-
-	    private void checkForTokens(String content, int startOffset, int endOffset)
+	    
+	    /*
+	     *  Insertion or removal of a piece of text, undone by removing or inserting it again
+	     */
+	    private class TextEdit extends AbstractUndoableEdit
 	    {
-	        while (startOffset <= endOffset)
-	        {
-	        	//  Extract and process the entire token
-	        	if (isQuote( content.substring(startOffset, startOffset + 1)))
-	                startOffset = getQuoteToken(content, startOffset, endOffset);
-	            else
-	                startOffset = getOtherToken(content, startOffset, endOffset);
-	        }
+	    	private static final long serialVersionUID = 4012467255342310571L;
+	    	
+	    	private final int offset;
+	    	private final String text;
+	    	private final boolean inserted;
+	    	
+	    	TextEdit(int offset, String text, boolean inserted)
+	    	{
+	    		this.offset = offset;
+	    		this.text = text;
+	    		this.inserted = inserted;
+	    	}
+	    	
+	    	public void undo() throws CannotUndoException
+	    	{
+	    		super.undo();
+	    		if (!apply(!inserted))
+	    			throw new CannotUndoException();
+	    	}
+	    	
+	    	public void redo() throws CannotRedoException
+	    	{
+	    		super.redo();
+	    		if (!apply(inserted))
+	    			throw new CannotRedoException();
+	    	}
+	    	
+	    	private boolean apply(boolean insert)
+	    	{
+	    		undoing = true;
+	    		try {
+	    			if (insert)
+	    				insertString(offset, text, null);
+	    			else
+	    				remove(offset, text.length());
+	    			return true;
+	    		}
+	    		catch (BadLocationException e) {
+	    			return false;
+	    		}
+	    		finally {
+	    			undoing = false;
+	    		}
+	    	}
+	    	
+	    	public String getPresentationName()
+	    	{
+	    		return UIManager.getString(inserted ? "AbstractDocument.additionText" : "AbstractDocument.deletionText");
+	    	}
 	    }
 	    
-	    private boolean isQuote(String character)
+	    /*
+	     *  Returns the lines changed since the previous call, or null if nothing was changed
+	     */
+	    public ChangedLines takeChangedLines()
 	    {
-	        String quoteDelimiters = "[";
-	        
-	        if (quoteDelimiters.indexOf(character) < 0)
-	            return false;
-	        else
-	            return true;
+	    	ChangedLines lines = changedLines;
+	    	changedLines = null;
+	    	return lines;
+	    }
+	    
+	    /*
+	     *  Lines shown by the editor (0-based). They are highlighted along with a margin around them,
+	     *  the rest of the document is highlighted when it is scrolled into view
+	     */
+	    public void setVisibleLines(int first, int last)
+	    {
+	    	firstVisible = first;
+	    	lastVisible = last;
+	    	highlightVisibleLines();
 	    }
 	    
-	    private int getQuoteToken(String content, int startOffset, int endOffset)
+	    private void highlightVisibleLines()
 	    {
-	        String quoteDelimiter = getQuoteEnding(content.substring(startOffset, startOffset + 1));
-	        
-	        int index;
-	        int endOfQuote = startOffset;
+	    	int first = Math.max(0, firstVisible - MARGIN);
+	    	int last = Math.min(rootElement.getElementCount() - 1, lastVisible + MARGIN);
+	    	
+	    	try {
+	    		for (int i = first; i <= last; i++)
+	    			if (tokenCache.get(i) == null)
+	    				applyHighlighting(i);
+	    	}
+	    	catch (BadLocationException e) {
+	    		e.printStackTrace();
+	    	}
+	    }
+
+	    /*
+	     *  Highlight the tokens of the line and keep them, so the line isn't split again until it is edited
+	     */
+	    private void applyHighlighting(int line) throws BadLocationException
+	    {
+	        int startOffset = rootElement.getElement( line ).getStartOffset();
+	        int endOffset = Math.min(rootElement.getElement( line ).getEndOffset() - 1, doc.getLength());
 
-	        index = content.indexOf(quoteDelimiter, endOfQuote + 1);
+	        //  only this line is read from the document, not the whole text
+	        doc.getText(startOffset, endOffset - startOffset, segment);
+	        int[] spans = tokenize(segment.toString());
+	        tokenCache.set(line, spans);
 	        
-	        if ( (index < 0) || (index > endOffset) ) 
-	        	// didn't find the enclosing quote, highlighting the whole line instead
-	        	endOfQuote = endOffset;
-	        else 
-	        	// found the enclosing quote
-	        	endOfQuote = index; 
+	        //  set normal attributes for the line
+	        doc.setCharacterAttributes(startOffset, endOffset - startOffset, normal, true);
 	        
-	        doc.setCharacterAttributes(startOffset, endOfQuote - startOffset + 1, quote, false);
-
-	        return endOfQuote + 1;
+	        for (int i = 0; i < spans.length; i += 3)
+	        {
+	        	int end = spans[i + 1] == -1 ? rootElement.getElement( line ).getEndOffset() : startOffset + spans[i + 1];
+	        	doc.setCharacterAttributes(startOffset + spans[i], end - startOffset - spans[i], styles[spans[i + 2]], false);
+	        }
 	    }
 	    
-	    private int getOtherToken(String content, int startOffset, int endOffset)
+	    /*
+	     *  Split the line by the Lexer into highlighted spans: start, end and style of each of them.
+	     *  End of a comment is -1, it is highlighted up to the end of the line including the line break
+	     */
+	    private int[] tokenize(String text)
 	    {
-	        int endOfToken = startOffset + 1;
-	        if ( isDelimiter( content.substring(startOffset, startOffset + 1) ) )
-	        	 return endOfToken;
+	        ScriptLine tokens = Lexer.tokenize(text);
+	        int[] spans = new int[(tokens.getTokens().size() + 1) * 3];
+	        int count = 0;
+	        int quoteEnd = 0; // tokens inside [brackets] aren't highlighted
 	        
-	        while ( endOfToken <= endOffset )
+	        for (ScriptLine.Token token : tokens.getTokens())
 	        {
-	        	if (isDelimiter(content.substring(endOfToken, endOfToken + 1)))
-	                break;
-	        	endOfToken++;
+	        	if (token.getStart() < quoteEnd)
+	        		continue;
+	        	
+	        	switch (token.getKind())
+	        	{
+	        		case ScriptLine.Token.BRACKET:
+	        			quoteEnd = token.getEnd();
+	        			break;
+	        		case ScriptLine.Token.SYMBOL:
+	        			// didn't find the enclosing bracket, highlighting the rest of the line instead
+	        			if (token.getText().equals("["))
+	        				quoteEnd = tokens.getComment() == null ? text.length() : text.indexOf('#');
+	        			break;
+	        		case ScriptLine.Token.WORD:
+	        		case ScriptLine.Token.COMMAND_NAME:
+	        		case ScriptLine.Token.VARIABLE:
+	        		case ScriptLine.Token.TARGET:
+	        			if (isKeyword(token.getText()))
+	        				count = addSpan(spans, count, token.getStart(), token.getEnd(), KEYWORD);
+	        			break;
+	        	}
+	        	if (quoteEnd > token.getStart())
+	        		count = addSpan(spans, count, token.getStart(), quoteEnd, QUOTE);
 	        }
-
-	        String token = content.substring(startOffset, endOfToken);
 	        
-	        if (isKeyword(token))
-	        {
-	            doc.setCharacterAttributes(startOffset, endOfToken - startOffset, keyword, false);
-	        }
-
-	        return endOfToken + 1;
+	        //  check for single line comment
+	        if (tokens.getComment() != null)
+	        	count = addSpan(spans, count, text.indexOf('#'), -1, COMMENT);
+	        
+	        return Arrays.copyOf(spans, count);
 	    }
 	    
-	    private String getSingleLineDelimiter()
+	    private static int addSpan(int[] spans, int count, int start, int end, int style)
 	    {
-	        return "#";
+	    	spans[count] = start;
+	    	spans[count + 1] = end;
+	    	spans[count + 2] = style;
+	    	return count + 3;
 	    }
 
 	    private boolean isKeyword(String token)
 	    {
 	        return keywords.contains(token);
 	    }
-	
-	    private boolean isDelimiter(String character)
-	    {
-	        String operands = ";:{}()[]+-/%<=>!&|^~*,.";
-	    	if (Character.isWhitespace(character.charAt(0)) ||  operands.indexOf(character) != -1)
-	            return true;
-	        else
-	            return false;
-	    }
-	    
-	    private String getQuoteEnding(String opening) {
-	    	if (opening.equals("["))
-	    		return "]";
-	    	return opening;
-	    }
-	    
-	    public void clearSearchQuery() {
-	    	SwingUtilities.invokeLater(new Runnable() {
-    		    public void run() {
-    		    	try {
-    		    		doc.setCharacterAttributes(0, doc.getLength(), searchQueryNoBackground, false);
-    		    	} catch (Exception e) {
-    					// TODO Auto-generated catch block
-    					e.printStackTrace();
-    				}
-    		    }
-    		});
-	    }
 	    
-	    public void highlightSearchQuery(String query) {
-	    	try {
-	    		String content = doc.getText(0, doc.getLength());
-				int currentIndex = 0;
-				
-				while (content.indexOf(query, currentIndex) > -1) {
-					currentIndex = content.indexOf(query, currentIndex);
-					doc.setCharacterAttributes(currentIndex, query.length(), searchQuery, false);
-					currentIndex += query.length();
-				}
-				
-			} catch (BadLocationException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-	    	
-	    	
+	    public OccurrenceIndex getOccurrenceIndex()
+	    {
+	    	return occurrenceIndex;
 	    }
-	    
 }
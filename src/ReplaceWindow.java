@@ -100,6 +100,8 @@ public class ReplaceWindow extends JFrame {
             	}
             	
             	MainWindow.EditorPane.loadText(text);
+            	//  loadText doesn't report changed lines, so the fixed text is analysed from scratch
+            	MainWindow.analyser.analyseText(text);
             	Main.window.unsavedChanges(true);
             	
             }           
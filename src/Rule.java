@@ -0,0 +1,77 @@
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ *  One check of the analysis: an id, a severity, a message, a hint how to fix it and the precompiled pattern it looks for.
+ *  The matcher is created once and reset for every line, so running the rule doesn't allocate.
+ *  Matchers aren't thread-safe, that's why every Parser has its own RuleSet.
+ */
+public class Rule {
+
+	public static final String ERROR = "Error";
+	public static final String INFO = "Info";
+
+	private final String id;
+	private final String severity;
+	private final String message;
+	private final String hint;
+	private final Matcher matcher;
+	private int hits; // times the rule fired, taken by Metrics
+
+	public Rule(String id, String severity, String pattern, String message) {
+		this(id, severity, pattern, message, null);
+	}
+
+	public Rule(String id, String severity, String pattern, String message, String hint) {
+		this.id = id;
+		this.severity = severity;
+		this.message = message;
+		this.hint = hint;
+		matcher = pattern == null ? null : Pattern.compile(pattern).matcher("");
+	}
+
+	public Matcher matcher(CharSequence text) {
+		return matcher.reset(text);
+	}
+
+	public boolean matches(CharSequence text) {
+		return matcher.reset(text).matches();
+	}
+
+	/*
+	 *  The problem found at the given line and columns, see Diagnostic.
+	 *  Arguments replace %s and %d in the message.
+	 */
+	public Diagnostic diagnose(int line, int startColumn, int endColumn, Object... args) {
+		++hits;
+		return new Diagnostic(id, severity, line, startColumn, endColumn, args.length == 0 ? message : String.format(message, args), hint);
+	}
+
+	// A problem of the whole file
+	public Diagnostic diagnoseFile(Object... args) {
+		return diagnose(-1, -1, -1, args);
+	}
+
+	// Hits counted since the previous call
+	public int takeHits() {
+		int taken = hits;
+		hits = 0;
+		return taken;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getSeverity() {
+		return severity;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public String getHint() {
+		return hint;
+	}
+}
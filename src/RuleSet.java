@@ -0,0 +1,100 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ *  All checks of the Parser, compiled once when the parser is created.
+ *  Rules are listed in the order they are tried on a line, the first one that fires stops the checks of the line.
+ *  Rules without a pattern are checked by the Parser on the tokens of the line, see Lexer.
+ *  Hints tell how to fix the problem, the ones that Quick fix can do mention it.
+ *  Matchers without a message are helpers: they pick parts of a line for the rules, but don't report anything themselves.
+ */
+public class RuleSet {
+
+	// Per-line checks
+	public final Rule commandSymbols = add(new Rule("command-symbols", Rule.ERROR, "\\*[\\w\\?\\s:<>=\\-]+", "inappropriate symbol(s)"));
+	public final Rule conditionSymbols = add(new Rule("condition-symbols", Rule.ERROR, "\\?[\\w\\?\\s:<>=\\-\\|^&]+", "inappropriate symbol(s)"));
+	public final Rule aliasname = add(new Rule("aliasname-position", Rule.ERROR, "\\* aliasname <([\\w]+)> <([\\w\\s]+)>", "having 'aliasname' in the middle of the script"));
+	public final Rule colonSpaces = add(new Rule("colon-spaces", Rule.ERROR, "\\s:\\s", "':' shouldn't be surrounded by two spaces",
+			"remove the space before ':' in speech, or the one after it before a label"));
+	// digits are allowed to prevent shooting at <-1:10> alike constructions, used by hasitem? command
+	public final Rule colonNoSpace = add(new Rule("colon-no-space", Rule.ERROR, "[^\\s\\d]:[^\\s\\d]", "at least one space must be present near ':'",
+			"write 'Name: speech' or 'text :Label'"));
+	public final Rule responseSpace = add(new Rule("response-space", Rule.ERROR, "^\\s*>[^\\s]", "> should be followed by space", "put a space after '>', Quick fix can do it"));
+	public final Rule missingLabel = add(new Rule("missing-label", Rule.ERROR, null, "missing label", "end the line with ' :Label'"));
+	public final Rule responseSymbols = add(new Rule("response-symbols", Rule.ERROR, "[^:#]+", "inappropriate symbol(s) in Response"));
+	public final Rule missingPipe = add(new Rule("missing-pipe", Rule.ERROR, null, "second pipe symbol is missing in the Optional Response", "close the condition with '|'"));
+	public final Rule missingCommand = add(new Rule("missing-command", Rule.ERROR, null, "missing command after asterisk\\questionmark"));
+	public final Rule asteriskSpaces = add(new Rule("asterisk-spaces", Rule.ERROR, "^[?*]\\s{2,}", "more than 1 space after asterisk\\questionmark", "leave one space, Quick fix can do it"));
+	public final Rule asteriskNoSpace = add(new Rule("asterisk-no-space", Rule.ERROR, "[?*](\\w+\\??)", "missed space after asterisk\\questionmark in '%s'", "put a space after it, Quick fix can do it"));
+	public final Rule commandLabel = add(new Rule("command-label", Rule.ERROR, "\\* (\\w+\\??).*", "missing label for '%s'", "end the line with ' :Label'"));
+	public final Rule endCase = add(new Rule("end-case", Rule.ERROR, "(?<=goto )[Ee][Nn][Dd]|(?<=:)[Ee][Nn][Dd]", "uncapitalized END", "write END, Quick fix can do it"));
+	public final Rule beginningCase = add(new Rule("beginning-case", Rule.ERROR,
+			"(?<=goto )[Bb][Ee][Gg][Ii][Nn][Nn][Ii][Nn][Gg]|(?<=:)[Bb][Ee][Gg][Ii][Nn][Nn][Ii][Nn][Gg]", "uncapitalized BEGINNING", "write BEGINNING, Quick fix can do it"));
+	public final Rule playerNameCase = add(new Rule("playername-case", Rule.ERROR, null, "uncapitalized $PLAYERNAME", "write $PLAYERNAME, Quick fix can do it"));
+	public final Rule playerGenderCase = add(new Rule("playergender-case", Rule.ERROR, null, "use either $PLAYERGENDER or $Playergender"));
+	public final Rule playerRaceCase = add(new Rule("playerrace-case", Rule.ERROR, null, "use either $PLAYERRACE or $Playerrace"));
+	public final Rule npcName = add(new Rule("npc-name", Rule.ERROR, "^([\\w\\s]+)( \\(\\w+\\))?", "bad NPC name, or having colons (':') in speech")); // Name (emotion)
+	public final Rule speechSymbols = add(new Rule("speech-symbols", Rule.ERROR, "[^:#]+", "inappropriate symbol(s)")); // blacklisted symbols
+	public final Rule missedAsterisk = add(new Rule("missed-asterisk", Rule.ERROR, null, "perhaps an asterisk was missed", "start the command with '* '"));
+	public final Rule strayText = add(new Rule("stray-text", Rule.ERROR, null, "inappropriate symbol(s)"));
+
+	// Checks of commands and conditions
+	public final Rule singleCommand = add(new Rule("single-command", Rule.ERROR, null, "only one command is allowed after the asterisk"));
+	public final Rule commandArguments = add(new Rule("command-arguments", Rule.ERROR, null, "command '%s' requires argument(s)"));
+	public final Rule conditionalCommand = add(new Rule("conditional-command", Rule.ERROR, null, "command '%s' is not suitable for using in conditional response"));
+	public final Rule invalidArgument = add(new Rule("invalid-argument", Rule.ERROR, null, "invalid argument '%s' for %s'"));
+	public final Rule unknownCommand = add(new Rule("unknown-command", Rule.ERROR, null, "unknown command '%s'", "About > Supported commands lists them"));
+
+	// Checks of the tree
+	public final Rule duplicateLabel = add(new Rule("duplicate-label", Rule.ERROR, null, "duplicate label name %s", "rename one of the labels"));
+	public final Rule redefineBeginning = add(new Rule("redefine-beginning", Rule.ERROR, null, "attempt to redefine [BEGINNING] label"));
+	public final Rule redefineEnd = add(new Rule("redefine-end", Rule.ERROR, null, "attempt to redefine [END] label"));
+	public final Rule unknownLabel = add(new Rule("unknown-label", Rule.ERROR, null, "no such label ':%s'", "add the label or jump to an existing one"));
+	// dialogue answer must not contain conditional expression in order to be `reliable`, hehe
+	public final Rule noExit = add(new Rule("no-exit", Rule.ERROR, "^\\*\\s*goto\\s+\\w+$|^\\s*>[^|]+:(\\w+)$", "no reliable exit point from node %s",
+			"end the node with '* goto Label' or a response without a condition"));
+	public final Rule unreachableCode = add(new Rule("unreachable-code", Rule.ERROR, "^(\\* goto \\w+)|^>.+", "the code at line %d and below will never be executed"));
+
+	// Checks of the whole file
+	public final Rule objectiveNotCompleted = add(new Rule("objective-not-completed", Rule.ERROR, null, "objective '%s' was activated, but never was completed\\cancelled",
+			"complete it with completeobjective or cancelobjective"));
+	public final Rule objectiveNotActivated = add(new Rule("objective-not-activated", Rule.ERROR, null, "objective '%s' was completed\\cancelled, but never was activated", "activate it with activateobjective"));
+	public final Rule questNotCompleted = add(new Rule("quest-not-completed", Rule.ERROR, null, "quest '%s' was activated, but was never completed", "complete it with completequest"));
+	public final Rule questNotActivated = add(new Rule("quest-not-activated", Rule.ERROR, null, "quest '%s' was completed, but was never activated", "activate it with activatequest"));
+
+	// Checks across the scripts of a project, see ProjectIndex
+	public final Rule unknownScript = add(new Rule("unknown-script", Rule.ERROR, null, "script '%s' doesn't exist", "paths are relative to the folder of the script"));
+	public final Rule unknownScriptLabel = add(new Rule("unknown-script-label", Rule.ERROR, null, "no label %s in script '%s'"));
+
+	// Helpers
+	public final Matcher todo = matcher("#\\s*TODO");
+	public final Matcher note = matcher("#\\s*NOTE");
+	// These commands may have some very rare symbols in their arguments, and I don't want to
+	// add those very specific symbols into a common whitelist used by all other commands
+	public final Matcher specialCommand = matcher("\\*\\s*(?:runscript|f|playsound|spawnmob) .+");
+	// either goes up to the latest ':' in the line or to the end of the line if none ':' was found
+	public final Matcher commandExpression = matcher("\\*(.+)?(?=:)|\\*(.+)?");
+	public final Matcher speaker = matcher("^([\\w\\s]+)( \\(\\w+\\))?:.*");
+	public final Matcher questArguments = matcher("\\w+\\?? <?(" + Syntax.QuestID_pattern + ")>?(.*)");
+	public final Pattern conditionSeparator = Pattern.compile("[&|^]");
+
+	private List<Rule> rules;
+
+	private Rule add(Rule rule) {
+		if (rules == null)
+			rules = new ArrayList<Rule>();
+		rules.add(rule);
+		return rule;
+	}
+
+	private static Matcher matcher(String pattern) {
+		return Pattern.compile(pattern).matcher("");
+	}
+
+	public List<Rule> getRules() {
+		return Collections.unmodifiableList(rules);
+	}
+}
@@ -0,0 +1,458 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/*
+ *  Writes quest scripts of any size for benchmarks, batch runs and stress tests.
+ *  Commands come from the Syntax: arguments are made up from the pattern of every registered command,
+ *  and only the lines the Parser accepts are used, so a script has no errors unless they are asked for.
+ *  A script has aliasnames, NPC speech, commands, conditions, responses with |condition| guards and jumps,
+ *  and a quest with objectives that are activated and completed like in a real one.
+ *
+ *  Size, branching (responses per node), cycles (share of jumps going up) and errors (share of lines
+ *  broken on purpose) can be set. The same seed and settings always give the same script.
+ *  Run as "java ScriptGenerator [--lines N] [--files N] [--branching N] [--cycles 0..1] [--errors 0..1] [--seed N] <directory>"
+ */
+public class ScriptGenerator {
+
+	// Commands that get their arguments from the script itself, not from their patterns
+	private static final Set<String> PLOT = new HashSet<String>(Arrays.asList(
+			"goto", "aliasname", "runscript", "activatequest", "completequest", "queststage",
+			"activateobjective", "completeobjective", "cancelobjective"));
+
+	private static final String[] NPCS = {"Twilight Sparkle", "Big Macintosh", "Snuggle Chaser", "Wellington"};
+	private static final String[] ALIASES = {"Twi", "Mac", "SC", "Well"};
+	private static final String[] EMOTIONS = {"happy", "sad", "angry", "confused"};
+	private static final String[] WORDS = {"apple", "road", "forest", "please", "the", "quest", "help", "me", "with", "again", "soon", "friend"};
+	private static final int SAMPLES = 8; // lines made for every command
+	private static final int TRIES = 60;
+
+	private final Random random;
+	private int branching = 2;
+	private double cycles = 0.1;
+	private double errors = 0;
+	private int injectedErrors;
+
+	private final List<String> commandLines = new ArrayList<String>(); // samples of every command
+	private final List<String> conditionalLines = new ArrayList<String>(); // the same of conditional commands, `:Label` comes after them
+	private final List<String> conditions = new ArrayList<String>(); // `command args` accepted inside |guards| and `? ...` lines
+
+	public ScriptGenerator(long seed) {
+		random = new Random(seed);
+		sampleCommands();
+	}
+
+	public static void main(String[] args) throws IOException {
+		int lines = 1000, files = 1, branching = 2;
+		double cycles = 0.1, errors = 0;
+		long seed = 42;
+		File directory = null;
+		try {
+			for (int i = 0; i < args.length; ++i) {
+				if (args[i].equals("--lines")) lines = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--files")) files = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--branching")) branching = Integer.parseInt(args[++i]);
+				else if (args[i].equals("--cycles")) cycles = Double.parseDouble(args[++i]);
+				else if (args[i].equals("--errors")) errors = Double.parseDouble(args[++i]);
+				else if (args[i].equals("--seed")) seed = Long.parseLong(args[++i]);
+				else if (directory == null && !args[i].startsWith("--")) directory = new File(args[i]);
+				else throw new IllegalArgumentException(args[i]);
+			}
+		}
+		catch (RuntimeException e) {
+			directory = null;
+		}
+		if (directory == null) {
+			System.err.println("Usage: java ScriptGenerator [--lines N] [--files N] [--branching N] [--cycles 0..1] [--errors 0..1] [--seed N] <directory>");
+			System.exit(2);
+		}
+
+		Files.createDirectories(directory.toPath());
+		ScriptGenerator generator = new ScriptGenerator(seed);
+		generator.setBranching(branching);
+		generator.setCycles(cycles);
+		generator.setErrors(errors);
+		for (int i = 1; i <= files; ++i) {
+			File file = new File(directory, "Q" + i + ".pscript");
+			Files.write(file.toPath(), generator.generate(lines), StandardCharsets.UTF_8);
+		}
+		System.err.println(files + " script(s) written to " + directory + ", " + generator.getInjectedErrors() + " error(s) injected");
+	}
+
+	public void setBranching(int branching) {
+		this.branching = Math.max(1, branching);
+	}
+
+	public void setCycles(double cycles) {
+		this.cycles = cycles;
+	}
+
+	public void setErrors(double errors) {
+		this.errors = errors;
+	}
+
+	// Lines broken on purpose by all scripts generated so far, every one of them makes at least one error
+	public int getInjectedErrors() {
+		return injectedErrors;
+	}
+
+	/*
+	 *  Script of about the given number of lines, it ends with the first node that comes after them
+	 *  and the nodes its jumps lead to
+	 */
+	public List<String> generate(int lines) {
+		List<String> text = new ArrayList<String>();
+		String quest = "Q" + random.nextInt(10000);
+		List<String> objectives = new ArrayList<String>();
+
+		for (int i = 0; i < ALIASES.length; ++i)
+			text.add("* aliasname <" + ALIASES[i] + "> <" + NPCS[i] + ">");
+		text.add("* activatequest <" + quest + ">");
+
+		int last = 0; // the last node some jump leads to
+		boolean finished = false;
+		for (int node = 0; !finished; ++node) {
+			boolean closing = text.size() >= lines; // no new nodes are referred to
+			if (node > 0)
+				text.add("[" + label(node) + "]"); // the script starts at BEGINNING without a label
+
+			for (int k = 1 + random.nextInt(3); k > 0; --k)
+				text.add(speech());
+
+			// The quest: objectives are activated on the way and completed a bit later
+			if (!closing && random.nextInt(6) == 0) {
+				String objective = "Objective" + objectives.size();
+				objectives.add(objective);
+				text.add("* activateobjective <" + quest + "> " + objective);
+			}
+			else if (objectives.size() > 0 && random.nextInt(4) == 0)
+				text.add("* completeobjective <" + quest + "> " + objectives.remove(0));
+			if (random.nextInt(8) == 0)
+				text.add("* queststage <" + quest + "> " + (1 + random.nextInt(100)));
+
+			int commands = random.nextInt(3);
+			for (int k = 0; k < commands; ++k) {
+				if (random.nextInt(3) == 0) {
+					int target = target(node, closing);
+					last = Math.max(last, target);
+					if (random.nextBoolean())
+						text.add(pick(conditionalLines) + " :" + label(target));
+					else if (random.nextBoolean())
+						text.add("? " + pick(conditions) + " :" + label(target));
+					else
+						text.add("? " + pick(conditions) + " " + "&|^".charAt(random.nextInt(3)) + " " + pick(conditions) + " :" + label(target));
+				}
+				else
+					text.add(pick(commandLines));
+			}
+
+			if (closing && node >= last) {
+				// The end of the quest
+				for (String objective : objectives)
+					text.add("* completeobjective <" + quest + "> " + objective);
+				objectives.clear();
+				text.add("* completequest " + quest);
+				text.add("* goto END");
+				finished = true;
+			}
+			else if (random.nextInt(branching + 1) == 0) {
+				int target = target(node, closing);
+				last = Math.max(last, target);
+				text.add("* goto " + label(target));
+			}
+			else {
+				int responses = 1 + random.nextInt(2 * branching);
+				for (int k = 0; k < responses; ++k) {
+					int target = target(node, closing);
+					last = Math.max(last, target);
+					if (k < responses - 1 && random.nextInt(3) == 0)
+						text.add("> |" + pick(conditions) + "| " + sentence() + " :" + label(target));
+					else
+						text.add("> " + sentence() + " :" + label(target));
+				}
+			}
+			text.add("");
+		}
+
+		if (errors > 0)
+			injectErrors(text);
+		return text;
+	}
+
+	// A node below the given one, or one above it for cycles. Closing nodes only go up or to the end
+	private int target(int node, boolean closing) {
+		if (closing || random.nextDouble() < cycles)
+			return closing && random.nextInt(4) == 0 ? -1 : random.nextInt(node + 1);
+		return node + 1 + random.nextInt(branching + 1);
+	}
+
+	private static String label(int node) {
+		if (node < 0)
+			return "END";
+		return node == 0 ? "BEGINNING" : "Node" + node;
+	}
+
+	private String speech() {
+		int npc = random.nextInt(NPCS.length);
+		String name = random.nextBoolean() ? NPCS[npc] : ALIASES[npc];
+		if (random.nextInt(4) == 0)
+			name += " (" + EMOTIONS[random.nextInt(EMOTIONS.length)] + ")";
+		String line = name + ": " + sentence();
+		if (random.nextInt(5) == 0)
+			line += ", $PLAYERNAME";
+		return line;
+	}
+
+	private String sentence() {
+		StringBuilder sentence = new StringBuilder();
+		for (int k = 2 + random.nextInt(6); k > 0; --k)
+			sentence.append(sentence.length() == 0 ? "" : " ").append(WORDS[random.nextInt(WORDS.length)]);
+		sentence.setCharAt(0, Character.toUpperCase(sentence.charAt(0)));
+		return sentence.toString();
+	}
+
+	/*
+	 *  Breaks some lines so that the Parser reports them: a missed space after the asterisk,
+	 *  an unknown command, a jump to a label that doesn't exist, a missed space after '>', a colon in speech
+	 */
+	private void injectErrors(List<String> text) {
+		for (int i = 0; i < text.size(); ++i) {
+			String line = text.get(i);
+			if (line.isEmpty() || line.startsWith("[") || random.nextDouble() >= errors)
+				continue;
+
+			String broken = null;
+			if (line.startsWith("* goto "))
+				broken = "* goto Missing" + i;
+			else if (line.startsWith("* ") && !line.startsWith("* aliasname"))
+				broken = random.nextBoolean() ? "*" + line.substring(2) : "* x" + line.substring(2);
+			else if (line.startsWith("> ") && !line.contains("|"))
+				broken = ">" + line.substring(2); // still an exit of its node, otherwise the tree isn't checked any further
+			else if (!line.startsWith("*") && !line.startsWith(">") && line.contains(": "))
+				broken = line + " and:this";
+			if (broken != null) {
+				text.set(i, broken);
+				++injectedErrors;
+			}
+		}
+	}
+
+	private <T> T pick(List<T> list) {
+		return list.get(random.nextInt(list.size()));
+	}
+
+	// Argument samples of every command of the Syntax, checked by the Parser as whole lines
+	private void sampleCommands() {
+		Parser parser = new Parser();
+		parser.setLayoutNeeded(false);
+		for (Command command : Syntax.getInstance().commands) {
+			if (PLOT.contains(command.getName()) || command.getPattern() == null)
+				continue;
+			Part pattern = new PatternReader(command.getPattern()).read();
+			int found = 0;
+			for (int k = 0; k < TRIES && found < SAMPLES; ++k) {
+				String args = pattern.sample(random);
+				if (!command.accepts(args))
+					continue;
+				String line = "* " + command.getName() + " " + args;
+				if (command.isConditional()) {
+					if (!accepted(parser, line + " :END"))
+						continue;
+					conditionalLines.add(line);
+					String condition = command.getName() + " " + args;
+					if (accepted(parser, "> |" + condition + "| Fine :END") && accepted(parser, "? " + condition + " :END"))
+						conditions.add(condition);
+				}
+				else {
+					if (!accepted(parser, line))
+						continue;
+					commandLines.add(line);
+				}
+				++found;
+			}
+		}
+	}
+
+	private static boolean accepted(Parser parser, String line) {
+		parser.setText(Arrays.asList(line));
+		return !parser.Errors.containsKey(1);
+	}
+
+	/*
+	 *  A regular expression as a tree, for making up strings it matches
+	 */
+	private static class Part {
+
+		static final int SEQUENCE = 0, CHOICE = 1, REPEAT = 2, CHARACTERS = 3;
+
+		final int kind;
+		final List<Part> parts = new ArrayList<Part>();
+		int min, max;		// of a repeat
+		String characters;	// one of them is taken
+
+		Part(int kind) {
+			this.kind = kind;
+		}
+
+		String sample(Random random) {
+			StringBuilder out = new StringBuilder();
+			sample(random, out);
+			return out.toString();
+		}
+
+		private void sample(Random random, StringBuilder out) {
+			switch (kind) {
+				case SEQUENCE:
+					for (Part part : parts)
+						part.sample(random, out);
+					break;
+				case CHOICE:
+					parts.get(random.nextInt(parts.size())).sample(random, out);
+					break;
+				case REPEAT:
+					for (int k = min + random.nextInt(max - min + 1); k > 0; --k)
+						parts.get(0).sample(random, out);
+					break;
+				case CHARACTERS:
+					out.append(characters.charAt(random.nextInt(characters.length())));
+					break;
+			}
+		}
+	}
+
+	/*
+	 *  Reads what the patterns of the Syntax use: groups, alternatives, [classes], \w \d \s, '.',
+	 *  escaped characters and the quantifiers ? * + {n} {n,m}. Open quantifiers repeat up to 3 times more
+	 */
+	private static class PatternReader {
+
+		static final String WORD = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789_";
+		static final String DIGITS = "0123456789";
+		static final String ANY = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 ";
+
+		private final String pattern;
+		private int position;
+
+		PatternReader(String pattern) {
+			this.pattern = pattern;
+		}
+
+		Part read() {
+			return choice();
+		}
+
+		// alternative | alternative ...
+		private Part choice() {
+			Part choice = new Part(Part.CHOICE);
+			choice.parts.add(sequence());
+			while (position < pattern.length() && pattern.charAt(position) == '|') {
+				++position;
+				choice.parts.add(sequence());
+			}
+			return choice.parts.size() == 1 ? choice.parts.get(0) : choice;
+		}
+
+		private Part sequence() {
+			Part sequence = new Part(Part.SEQUENCE);
+			while (position < pattern.length() && pattern.charAt(position) != '|' && pattern.charAt(position) != ')')
+				sequence.parts.add(quantified(atom()));
+			return sequence;
+		}
+
+		private Part atom() {
+			char c = pattern.charAt(position++);
+			if (c == '(') {
+				if (pattern.startsWith("?:", position))
+					position += 2;
+				Part group = choice();
+				++position; // ')'
+				return group;
+			}
+			if (c == '[')
+				return characterClass();
+			if (c == '\\')
+				return characters(escaped(pattern.charAt(position++)));
+			if (c == '.')
+				return characters(ANY);
+			return characters(String.valueOf(c));
+		}
+
+		private Part quantified(Part atom) {
+			if (position >= pattern.length())
+				return atom;
+			char c = pattern.charAt(position);
+			int min, max;
+			if (c == '?') { min = 0; max = 1; }
+			else if (c == '*') { min = 0; max = 3; }
+			else if (c == '+') { min = 1; max = 4; }
+			else if (c == '{') {
+				int end = pattern.indexOf('}', position);
+				String[] bounds = pattern.substring(position + 1, end).split(",", -1);
+				min = Integer.parseInt(bounds[0]);
+				max = bounds.length == 1 ? min : bounds[1].isEmpty() ? min + 3 : Integer.parseInt(bounds[1]);
+				position = end;
+			}
+			else
+				return atom;
+			++position;
+
+			Part repeat = new Part(Part.REPEAT);
+			repeat.parts.add(atom);
+			repeat.min = min;
+			repeat.max = max;
+			return repeat;
+		}
+
+		// [abc], [a-z], [\w\s], [^:#]
+		private Part characterClass() {
+			boolean negated = pattern.charAt(position) == '^';
+			if (negated)
+				++position;
+			StringBuilder set = new StringBuilder();
+			while (pattern.charAt(position) != ']') {
+				char c = pattern.charAt(position++);
+				if (c == '\\')
+					set.append(escaped(pattern.charAt(position++)));
+				else if (pattern.charAt(position) == '-' && pattern.charAt(position + 1) != ']') {
+					char to = pattern.charAt(position + 1);
+					for (char k = c; k <= to; ++k)
+						set.append(k);
+					position += 2;
+				}
+				else
+					set.append(c);
+			}
+			++position; // ']'
+
+			if (!negated)
+				return characters(set.toString());
+			StringBuilder allowed = new StringBuilder();
+			for (char c : ANY.toCharArray())
+				if (set.indexOf(String.valueOf(c)) == -1)
+					allowed.append(c);
+			return characters(allowed.toString());
+		}
+
+		private static String escaped(char c) {
+			switch (c) {
+				case 'w': return WORD;
+				case 'd': return DIGITS;
+				case 's': return " ";
+				default: return String.valueOf(c);
+			}
+		}
+
+		private static Part characters(String characters) {
+			Part part = new Part(Part.CHARACTERS);
+			part.characters = characters;
+			return part;
+		}
+	}
+}
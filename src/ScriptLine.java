@@ -0,0 +1,169 @@
+import java.util.List;
+
+/*
+ *  One line of a script as it was split by the Lexer: the kind of the line, its code without the comment,
+ *  and the tokens in the order they appear. Offsets of tokens are relative to the start of the line.
+ */
+public class ScriptLine {
+
+	// Kinds of lines
+	public static final int EMPTY = 0;
+	public static final int COMMENT = 1;	// # only a comment
+	public static final int COMMAND = 2;	// * command
+	public static final int CONDITION = 3;	// ? condition :Label
+	public static final int RESPONSE = 4;	// > Response :Label
+	public static final int LABEL = 5;		// [Label]
+	public static final int SPEECH = 6;		// NPCName (emotion): speech
+	public static final int TEXT = 7;		// anything else, e.g. continuation of a speech
+
+	/*
+	 *  Part of a line. Arguments and brackets span the tokens inside them,
+	 *  all other tokens don't overlap each other.
+	 */
+	public static class Token {
+
+		public static final int WORD = 0;
+		public static final int COMMAND_NAME = 1;	// first word after * or ?
+		public static final int VARIABLE = 2;		// $PLAYERNAME
+		public static final int ARGUMENT = 3;		// <argument>
+		public static final int BRACKET = 4;		// [text]
+		public static final int PIPE = 5;			// |
+		public static final int TARGET = 6;			// Label of `:Label` or `goto Label` at the end of the code
+		public static final int SYMBOL = 7;			// any other delimiter, one character
+		public static final int COMMENT = 8;		// # and everything after it
+
+		final int start;
+		int kind, end;
+		String text;
+
+		Token(int kind, String line, int start, int end) {
+			this.kind = kind;
+			this.start = start;
+			this.end = end;
+			this.text = line.substring(start, end);
+		}
+
+		public int getKind() {
+			return kind;
+		}
+
+		public int getStart() {
+			return start;
+		}
+
+		public int getEnd() {
+			return end;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+
+	private final int kind;
+	private final String text;
+	private final String code;
+	private final int codeStart;
+	private final List<Token> tokens;
+	private final Token comment;
+	private final String labelTarget, jumpTarget;
+
+	ScriptLine(int kind, String text, int codeStart, int codeEnd, List<Token> tokens, Token comment, String labelTarget, String jumpTarget) {
+		this.kind = kind;
+		this.text = text;
+		this.code = text.substring(codeStart, codeEnd);
+		this.codeStart = codeStart;
+		this.tokens = tokens;
+		this.comment = comment;
+		this.labelTarget = labelTarget;
+		this.jumpTarget = jumpTarget;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	// The line as it was given to the lexer
+	public String getText() {
+		return text;
+	}
+
+	// Trimmed line without the comment
+	public String getCode() {
+		return code;
+	}
+
+	// Offset of the code in the line
+	public int getCodeStart() {
+		return codeStart;
+	}
+
+	public List<Token> getTokens() {
+		return tokens;
+	}
+
+	// The comment including '#', or null
+	public String getComment() {
+		return comment == null ? null : comment.text;
+	}
+
+	/*
+	 *  Label of the `:Label` at the end of the code, or null.
+	 *  Responses and conditions need it, commands like `* questactive? <QuestID> :Label` too.
+	 */
+	public String getLabelTarget() {
+		return labelTarget;
+	}
+
+	/*
+	 *  Label this line jumps to, either by `:Label` or by `goto Label` at the end of the code, or null
+	 */
+	public String getJumpTarget() {
+		return jumpTarget;
+	}
+
+	// Part of a speech line before the last ':', or null if this isn't a speech
+	public String getSpeaker() {
+		if (kind != SPEECH)
+			return null;
+		return code.substring(0, code.lastIndexOf(':'));
+	}
+
+	// Part of a speech line after the first ':', or null if there's nothing
+	public String getSpeech() {
+		if (kind != SPEECH)
+			return null;
+		int colon = code.indexOf(':');
+		return colon == code.length() - 1 ? null : code.substring(colon + 1);
+	}
+
+	public int count(int tokenKind) {
+		int count = 0;
+		for (Token token : tokens)
+			if (token.kind == tokenKind)
+				++count;
+		return count;
+	}
+
+	public Token first(int tokenKind) {
+		for (Token token : tokens)
+			if (token.kind == tokenKind)
+				return token;
+		return null;
+	}
+
+	public Token last(int tokenKind) {
+		for (int i = tokens.size() - 1; i >= 0; --i)
+			if (tokens.get(i).kind == tokenKind)
+				return tokens.get(i);
+		return null;
+	}
+
+	// First variable that is spelled like the given one in any case, or null
+	public Token findVariable(String name) {
+		for (Token token : tokens)
+			if (token.kind == Token.VARIABLE && token.text.regionMatches(true, 0, name, 0, name.length()))
+				return token;
+		return null;
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/*
+ *  Reads a script into a LineBuffer with one read of the file.
+ *  The encoding is found by a single scan over the bytes: valid UTF-8 is read as UTF-8,
+ *  anything else as ISO-8859-1, which is what trying the encodings one by one ended up with.
+ *  Lines are split at \n, \r and \r\n like Files.readAllLines does it.
+ */
+public class ScriptReader {
+
+	public static final String UTF_8 = "UTF-8";
+	public static final String ISO_8859_1 = "ISO-8859-1";
+
+	private final LineBuffer text;
+	private final String encoding;
+
+	public ScriptReader(File file) throws IOException {
+		this(Files.readAllBytes(file.toPath()));
+	}
+
+	public ScriptReader(InputStream stream) throws IOException {
+		this(readAllBytes(stream));
+	}
+
+	public ScriptReader(byte[] bytes) throws CharacterCodingException {
+		int nonAscii = scanUtf8(bytes);
+		char[] chars;
+
+		if (nonAscii == 0) {
+			// Plain ASCII, every byte is a char
+			encoding = UTF_8;
+			chars = widen(bytes);
+		}
+		else if (nonAscii > 0) {
+			encoding = UTF_8;
+			int start = hasBom(bytes) ? 3 : 0;
+			CharBuffer decoded = Charset.forName(UTF_8).newDecoder().decode(ByteBuffer.wrap(bytes, start, bytes.length - start));
+			chars = new char[decoded.remaining()];
+			decoded.get(chars);
+		}
+		else {
+			encoding = ISO_8859_1;
+			chars = widen(bytes);
+		}
+
+		text = splitLines(chars);
+	}
+
+	public LineBuffer getText() {
+		return text;
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/*
+	 *  Returns 0 if all bytes are ASCII, the number of multibyte characters if the bytes are valid UTF-8,
+	 *  or -1 if they aren't. Overlong forms, surrogates and code points above U+10FFFF are not valid.
+	 */
+	private static int scanUtf8(byte[] bytes) {
+		int count = 0;
+		int n = bytes.length;
+		int i = 0;
+
+		while (i < n) {
+			int b = bytes[i] & 0xff;
+			if (b < 0x80) {
+				++i;
+				continue;
+			}
+
+			int length, min = 0x80, max = 0xbf; // allowed range of the second byte
+			if (b >= 0xc2 && b <= 0xdf)
+				length = 2;
+			else if (b >= 0xe0 && b <= 0xef) {
+				length = 3;
+				if (b == 0xe0)
+					min = 0xa0;
+				else if (b == 0xed)
+					max = 0x9f;
+			}
+			else if (b >= 0xf0 && b <= 0xf4) {
+				length = 4;
+				if (b == 0xf0)
+					min = 0x90;
+				else if (b == 0xf4)
+					max = 0x8f;
+			}
+			else
+				return -1;
+
+			if (i + length > n)
+				return -1;
+			int second = bytes[i + 1] & 0xff;
+			if (second < min || second > max)
+				return -1;
+			for (int j = 2; j < length; ++j)
+				if ((bytes[i + j] & 0xc0) != 0x80)
+					return -1;
+
+			i += length;
+			++count;
+		}
+		return count;
+	}
+
+	private static boolean hasBom(byte[] bytes) {
+		return bytes.length >= 3 && (bytes[0] & 0xff) == 0xef && (bytes[1] & 0xff) == 0xbb && (bytes[2] & 0xff) == 0xbf;
+	}
+
+	private static char[] widen(byte[] bytes) {
+		char[] chars = new char[bytes.length];
+		for (int i = 0; i < bytes.length; ++i)
+			chars[i] = (char) (bytes[i] & 0xff);
+		return chars;
+	}
+
+	// Drops line terminators in place and remembers where each line starts
+	private static LineBuffer splitLines(char[] chars) {
+		int[] lineStarts = new int[16];
+		int lineCount = 0;
+		int lineStart = 0, length = 0;
+
+		for (int i = 0; i < chars.length; ++i) {
+			char c = chars[i];
+			if (c == '\n' || c == '\r') {
+				if (lineCount + 1 == lineStarts.length)
+					lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+				lineStarts[lineCount++] = lineStart;
+				if (c == '\r' && i + 1 < chars.length && chars[i + 1] == '\n')
+					++i;
+				lineStart = length;
+			}
+			else
+				chars[length++] = c;
+		}
+
+		// The last line may have no terminator
+		if (length > lineStart) {
+			if (lineCount + 1 == lineStarts.length)
+				lineStarts = Arrays.copyOf(lineStarts, lineStarts.length * 2);
+			lineStarts[lineCount++] = lineStart;
+		}
+		lineStarts[lineCount] = length;
+
+		return new LineBuffer(chars, lineStarts, lineCount);
+	}
+
+	private static byte[] readAllBytes(InputStream stream) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = stream.read(buffer)) != -1)
+			bytes.write(buffer, 0, read);
+		stream.close();
+		return bytes.toByteArray();
+	}
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ *  What other scripts may need to know about one script: its labels, the QuestIDs, objectives and aliasnames
+ *  it mentions and the scripts it runs. Made by the Parser together with the rest of the results,
+ *  the ProjectIndex puts the symbols of all scripts of a project together.
+ */
+public class ScriptSymbols {
+
+	// `* runscript ../CK_Library/QuestID.pscript goto [Label]` at the given line, label is null without goto
+	public static class Runscript {
+
+		public final int line;
+		public final String path;
+		public final String label;
+
+		public Runscript(int line, String path, String label) {
+			this.line = line;
+			this.path = path;
+			this.label = label;
+		}
+	}
+
+	private final Map<String, Integer> labels; // [Label] -> its line
+	private final Set<String> questIds;
+	private final Set<String> objectives;
+	private final Set<String> aliases;
+	private final List<Runscript> runscripts;
+
+	public ScriptSymbols() {
+		this(null, null, null, null, null);
+	}
+
+	public ScriptSymbols(Map<String, Integer> labels, Set<String> questIds, Set<String> objectives, Set<String> aliases, List<Runscript> runscripts) {
+		this.labels = labels == null ? Collections.<String, Integer>emptyMap() : Collections.unmodifiableMap(new HashMap<String, Integer>(labels));
+		this.questIds = copy(questIds);
+		this.objectives = copy(objectives);
+		this.aliases = copy(aliases);
+		this.runscripts = runscripts == null ? Collections.<Runscript>emptyList() : Collections.unmodifiableList(new ArrayList<Runscript>(runscripts));
+	}
+
+	private static Set<String> copy(Set<String> set) {
+		return set == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(new LinkedHashSet<String>(set));
+	}
+
+	public boolean hasLabel(String label) {
+		return labels.containsKey(label);
+	}
+
+	// Line of the label, or -1 if there's no such label
+	public int getLabelLine(String label) {
+		Integer line = labels.get(label);
+		return line == null ? -1 : line;
+	}
+
+	public Set<String> getLabels() {
+		return labels.keySet();
+	}
+
+	public Set<String> getQuestIds() {
+		return questIds;
+	}
+
+	public Set<String> getObjectives() {
+		return objectives;
+	}
+
+	public Set<String> getAliases() {
+		return aliases;
+	}
+
+	public List<Runscript> getRunscripts() {
+		return runscripts;
+	}
+}
@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ *  Points on a uniform grid, for finding the point under the mouse without walking all of them.
+ *  Points are numbered 0..size-1, a cell holds the numbers of the points inside it.
+ *  A search looks only at the cells the search circle touches.
+ */
+public class SpatialIndex {
+
+	private final double cellSize;
+	private final double[] coordinates; // x and y of point i are at 2i and 2i+1
+	private final boolean[] placed;
+	private final HashMap<Long, List<Integer>> cells = new HashMap<Long, List<Integer>>();
+
+	public SpatialIndex(int size, double cellSize) {
+		this.cellSize = cellSize;
+		coordinates = new double[size * 2];
+		placed = new boolean[size];
+	}
+
+	// Adds the point, or moves it if it's already there
+	public void put(int i, double x, double y) {
+		if (placed[i]) {
+			long from = cell(coordinates[i * 2], coordinates[i * 2 + 1]);
+			if (from == cell(x, y)) {
+				coordinates[i * 2] = x;
+				coordinates[i * 2 + 1] = y;
+				return;
+			}
+			List<Integer> points = cells.get(from);
+			points.remove(Integer.valueOf(i));
+			if (points.isEmpty())
+				cells.remove(from);
+		}
+
+		coordinates[i * 2] = x;
+		coordinates[i * 2 + 1] = y;
+		placed[i] = true;
+		long to = cell(x, y);
+		List<Integer> points = cells.get(to);
+		if (points == null) {
+			points = new ArrayList<Integer>(2);
+			cells.put(to, points);
+		}
+		points.add(i);
+	}
+
+	/*
+	 *  The point closest to (x, y) that is nearer than radius, or -1 if there is none
+	 */
+	public int nearest(double x, double y, double radius) {
+		int found = -1;
+		double best = radius;
+		long fromX = column(x - radius), toX = column(x + radius);
+		long fromY = column(y - radius), toY = column(y + radius);
+
+		for (long cx = fromX; cx <= toX; ++cx) {
+			for (long cy = fromY; cy <= toY; ++cy) {
+				List<Integer> points = cells.get(key(cx, cy));
+				if (points == null)
+					continue;
+				for (int i : points) {
+					double d = Math.hypot(coordinates[i * 2] - x, coordinates[i * 2 + 1] - y);
+					if (d < best) {
+						best = d;
+						found = i;
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	public void clear() {
+		cells.clear();
+		Arrays.fill(placed, false);
+	}
+
+	private long cell(double x, double y) {
+		return key(column(x), column(y));
+	}
+
+	private long column(double v) {
+		return (long) Math.floor(v / cellSize);
+	}
+
+	// Long.hashCode() is high ^ low, the low half is scrambled so neighbouring cells don't collide
+	static long key(long cx, long cy) {
+		return (cx << 32) ^ ((cy * 0x9E3779B1L) & 0xffffffffL);
+	}
+}
@@ -1,13 +1,26 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Syntax {
 
 	List<Command> commands;
+	private Map<String, Command> index; // name -> command
+	private String version;
 	public static String QuestID_pattern = "\\w+"; 
 	public static String Coordinate_pattern = "[-+]?\\d+(\\.\\d+)?"; // catches all floats and integers with optional +-
 	
-	public Syntax() {
+	// Commands never change once they were registered, so the whole editor shares one registry.
+	// Has to be created after the patterns above
+	private static final Syntax instance = new Syntax();
+	
+	public static Syntax getInstance() {
+		return instance;
+	}
+	
+	private Syntax() {
 		
 		commands = new ArrayList<Command>();
 		
@@ -50,22 +63,29 @@ public class Syntax {
 		
 		commands.add(new Command("spawnmob", new String[] {"(Birch Dryad|Bunny|Cockatrice|Corgi|Dragon|Hornet|Husky|Karkadann|Lantern Monster|Manticore|Naiad|Timberwolf)\\s*<(" + Coordinate_pattern + ",\\s*){6}[-+]?\\d+(\\.\\d+)?>\\s*\\d+"}, new String[] {"* spawnmob Dragon <51.676, 9.179, -56.765, 0.000, 0.494, 0.000, -0.870> 15", "* spawnmob MobName <posX, posY, posZ, rotationA, rotationB, rotationC, rotationD> LevelOfMob", "Supported mobs: Birch Dryad, Bunny, Cockatrice, Corgi, Dragon, Hornet, Husky, Karkadann, Lantern Monster, Manticore, Naiad, Timberwolf"}));
 		
+		commands = Collections.unmodifiableList(commands);
+		index = new HashMap<String, Command>();
+		for (Command c: commands)
+			index.put(c.getName(), c);
+		index = Collections.unmodifiableMap(index);
 		
+		StringBuilder definition = new StringBuilder();
+		for (Command c: commands)
+			definition.append(c.getName()).append(' ').append(c.getPattern()).append('\n');
+		version = Integer.toHexString(definition.toString().hashCode());
+	}
+	
+	// Changes whenever a command or its arguments change, so results of older checks aren't reused, see AnalysisCache
+	public String getVersion() {
+		return version;
 	}
 	
 	public boolean commandExists(String name) {
-		for (Command c: commands) {
-			if (c.getName().equals(name))
-				return true;
-		}
-		return false;
+		return index.containsKey(name);
 	}
 	
+	// The command with the given name, or null if there's no such command
 	public Command findCommand(String name) {
-		for (Command c: commands) {
-			if (c.getName().equals(name))
-				return c;
-		}
-		return null;
+		return index.get(name);
 	}
 }
@@ -58,7 +58,7 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
     private int lastHeight;
     private int lastLine;
 
-    private boolean needToClearSearchQuery = false; // this flag is to optimize clearing searchQuery after selection is gone; prevents huge lags when cursor is in move
+    private OccurrenceHighlighter occurrences; // all fragments of text that match the selection
 	private HashMap<String, FontMetrics> fonts;
 	
 	private int imageSize = 16;
@@ -72,6 +72,8 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 	public RedoAction redoAction;
 	public UndoAction undoAction;
 	private Timer parsingTimer;
+	private DocumentListener editListener;		// marks unsaved changes and schedules the analysis
+	private UndoableEditListener undoListener;
 	
 	/**
 	 *	Create a line number component for a text component. This minimum
@@ -107,23 +109,15 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 		parsingTimer = new Timer(1500, new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent arg0) {
-				MainWindow.parser.setText(getEditorContent());
-				MainWindow.updateState(false);
-				if (panel.isShowing())
-					panel.repaint();
-				try {
-					int line = getLineOfOffset(component, component.getCaret().getDot());
-					updateErrorMessage(line);
-				}
-				catch (BadLocationException e) {
-					e.printStackTrace();
-				}
+				//  The analysis runs in the background on a snapshot of the text, 
+				//  only the lines edited since the last analysis are checked again
+				ChangedLines changedLines = ((PscriptDocument) component.getDocument()).takeChangedLines();
+				MainWindow.analyser.analyse(getEditorContent(), changedLines);
 			}
 		});
 		parsingTimer.setRepeats(false);
 		
-		PscriptDocument doc = new PscriptDocument();
-		doc.addDocumentListener(new DocumentListener() {
+		editListener = new DocumentListener() {
 			@Override
 			public void changedUpdate(DocumentEvent e) {
 				// An attribute was changed
@@ -138,20 +132,20 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 				Main.window.unsavedChanges(true);
 				parsingTimer.restart();
 			}
-		});
+		};
 		
 		DefaultHighlighter contentHL = new DefaultHighlighter();
 		DefaultHighlightPainter contentPainter = new DefaultHighlighter.DefaultHighlightPainter(lineHighlightingColor);
 		
 		component.setHighlighter(contentHL);
-		component.setDocument(doc);
-		component.getDocument().addDocumentListener(this);
+		occurrences = new OccurrenceHighlighter(component);
 		component.addCaretListener( this );
 		component.addPropertyChangeListener("font", this);
 		component.addCaretListener(new CaretListener() {
 			@Override
 			public void caretUpdate(CaretEvent e) {
 				int dot = e.getDot();
+				PscriptDocument doc = (PscriptDocument) component.getDocument();
 				try {
 					int line = getLineOfOffset(component, dot);
 					updateErrorMessage(line);
@@ -167,16 +161,8 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 					if (Line != null)
 						highlightTag = contentHL.addHighlight(Line.getStartOffset(), Line.getEndOffset(), contentPainter);
 					
-					// Un-highlight all previously highlighted text
-					if (needToClearSearchQuery) {
-						doc.clearSearchQuery();
-						needToClearSearchQuery = false;
-					}
 					// Highlighting all fragments of text that match mouse selection
-					if (component.getSelectedText() != null) {
-						doc.highlightSearchQuery(component.getSelectedText());
-						needToClearSearchQuery = true;
-					};
+					occurrences.setQuery(component.getSelectedText());
 					
 				} catch (BadLocationException e1) {
 					e1.printStackTrace();
@@ -200,28 +186,79 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 		component.getActionMap().put("redoKeystroke", redoAction);
 		
 		
-		try {
-			doc.addUndoableEditListener(new UndoableEditListener()
-            {
-				public void undoableEditHappened(UndoableEditEvent evt)
-				{
-					undoManager.addEdit(evt.getEdit());
-					MainWindow.refreshControls();
+		undoListener = new UndoableEditListener()
+		{
+			public void undoableEditHappened(UndoableEditEvent evt)
+			{
+				undoManager.addEdit(evt.getEdit());
+				MainWindow.refreshControls();
+			}
+		};
+		
+		setDocument(new PscriptDocument());
+		
+		//  Only the lines in view are highlighted, the rest is highlighted when it is scrolled to.
+		//  Same for occurrences of the selection
+		if (component.getParent() instanceof JViewport)
+			((JViewport) component.getParent()).addChangeListener(new ChangeListener() {
+				@Override
+				public void stateChanged(ChangeEvent e) {
+					highlightVisibleLines();
 				}
-            });
-        }
-		catch(Exception e) { 
-			e.printStackTrace();
-		}
+			});
+	}
+	
+	/*
+	 *  Moves the listeners of the editor to the given document and shows it
+	 */
+	private void setDocument(PscriptDocument doc)
+	{
+		Document old = component.getDocument();
+		old.removeDocumentListener(editListener);
+		old.removeDocumentListener(this);
+		old.removeUndoableEditListener(undoListener);
 		
+		doc.addDocumentListener(editListener);
+		doc.addDocumentListener(this);
+		doc.addUndoableEditListener(undoListener);
+		component.setDocument(doc);
+		highlightVisibleLines();
+	}
+	
+	private void highlightVisibleLines()
+	{
+		Rectangle view = component.getVisibleRect();
+		Element root = component.getDocument().getDefaultRootElement();
+		int first = root.getElementIndex(Math.max(0, component.viewToModel(new Point(0, view.y))));
+		int last = root.getElementIndex(Math.max(0, component.viewToModel(new Point(0, view.y + view.height))));
+		((PscriptDocument) component.getDocument()).setVisibleLines(first, last);
+		occurrences.setVisibleLines(first, last);
 	}
 
+	/*
+	 *  Called on the Event Dispatch Thread when the background analysis has published new results
+	 */
+	public void analysisFinished() {
+		if (panel.isShowing())
+			panel.repaint();
+		try {
+			int line = getLineOfOffset(component, component.getCaret().getDot());
+			updateErrorMessage(line);
+		}
+		catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	private void updateErrorMessage(int line) {
-		String errorSum = "";
-		if (MainWindow.parser.Errors.containsKey(line + 1))
-				for (String errorMsg : MainWindow.parser.Errors.get(line + 1))
-					errorSum += errorMsg + " ";
-			MainWindow.errorDescription.setText(errorSum);
+		AnalysisResult analysis = MainWindow.analyser.getResult();
+		StringBuilder errorSum = new StringBuilder();
+		for (Diagnostic error : analysis.Errors.get(line + 1)) {
+			errorSum.append(error).append(' ');
+			if (error.getHint() != null)
+				errorSum.append("(").append(error.getHint()).append(") ");
+		}
+		MainWindow.errorDescription.setText(errorSum.toString());
 	}
 	
 	/**
@@ -383,6 +420,8 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 
 		//  Determine the rows to draw within the clipped bounds.
 
+		//  One snapshot for the whole paint, the analysis may publish a new one meanwhile
+		AnalysisResult analysis = MainWindow.analyser.getResult();
 		Rectangle clip = g.getClipBounds();
 		int rowStartOffset = component.viewToModel( new Point(0, clip.y) );
 		int endOffset = component.viewToModel( new Point(0, clip.y + clip.height) );
@@ -408,13 +447,13 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
     			//  Draw error icon
     			if (lineNumber.length() > 0) {
     				int num = Integer.parseInt(lineNumber);
-    				if (MainWindow.parser.Notes.containsKey(num)) {
-    					if (MainWindow.parser.Notes.get(num) == "TODO")
+    				if (analysis.Notes.containsKey(num)) {
+    					if (analysis.Notes.get(num) == "TODO")
     						g.drawImage(todoIcon.getImage(), x - imageSize - imageSpacing, y - imageSize + 4, null);
-    					if (MainWindow.parser.Notes.get(num) == "NOTE")
+    					if (analysis.Notes.get(num) == "NOTE")
     						g.drawImage(noteIcon.getImage(), x - imageSize - imageSpacing, y - imageSize + 4, null);
     				}
-    				if (MainWindow.parser.Errors.containsKey(num))
+    				if (analysis.Errors.hasError(num))
     					g.drawImage(errorIcon.getImage(), x - imageSize - imageSpacing, y - imageSize + 4, null);
     			}
     			
@@ -619,28 +658,21 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 	}
 	
 	public void loadText(List<String> text) {
-		loadText(Parser.addLinesToText(text));
+		loadText(new LineBuffer(text));
 	}
 	
-	public void loadText(HashMap<Integer, String> text) {
+	public void loadText(LineBuffer text) {
 		
 		JScrollPane contentScrollPane = (JScrollPane) component.getParent().getParent();
 		int scrollBarPos = contentScrollPane.getVerticalScrollBar().getValue();
 		
-		component.setText("");
+		//  The text is put into a new document that nobody listens to yet, then the document is swapped in.
+		//  Inserting it into the current one would record undo edits, mark unsaved changes and restart the analysis
+		setDocument(PscriptDocument.load(text.toString()));
+		documentChanged();
 		
-		Document doc = component.getDocument();
-	    try {
-        	for (int i = 1; i < text.size() + 1; i++) {
-        		doc.insertString(doc.getLength(), text.get(i) + "\n", null);
-        	}
-        	
-        	undoManager.discardAllEdits();
-        	undoAction.setEnabled(false); //  for some reason this has no effect >~>
-        }
-	    catch (BadLocationException e) {
-        	e.printStackTrace();
-        }
+		undoManager.discardAllEdits();
+		undoAction.setEnabled(false); //  for some reason this has no effect >~>
 	    
 		SwingUtilities.invokeLater(new Runnable() {
 		    public void run() {
@@ -652,10 +684,14 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 		parsingTimer.stop();
 	}
 	
+	//  Lines of the editor as ScriptReader reads them from a file: empty lines at the end are kept,
+	//  only the empty one after the last '\n' isn't a line of its own
 	public List<String> getEditorContent() {
 		List<String> text = new ArrayList<String>();
-		for (String s : component.getText().split("\n"))
+		for (String s : component.getText().split("\n", -1))
 			text.add(s); 
+		if (text.get(text.size() - 1).isEmpty())
+			text.remove(text.size() - 1);
 		return text;
 	}
 
@@ -712,8 +748,6 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 		}
 
 		public void actionPerformed(ActionEvent e) {
-			if (undoManager.canUndo())
-				undoManager.undo();
 			if (undoManager.canUndo())
 				undoManager.undo();
 			update();
@@ -743,8 +777,6 @@ public class TextLineNumber extends JPanel implements CaretListener, DocumentLis
 		}
 
 		public void actionPerformed(ActionEvent e) {
-			if (undoManager.canRedo())
-				undoManager.redo();
 			if (undoManager.canRedo())
 				undoManager.redo();
 			update();
@@ -0,0 +1,55 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ *  The console keeps its header whatever number of errors comes after it,
+ *  the dropped messages are counted by severity and the list shows what the filter lets through.
+ */
+public class ConsoleLogTest {
+
+	@Test
+	public void headerIsNeverDropped() {
+		ConsoleLog log = new ConsoleLog(10);
+		log.add(-1, "Input file = test.txt");
+		log.add(-1, "Lines total : 100");
+		log.add(-1, "");
+		log.pin();
+		for (int line = 0; line < 30; ++line)
+			log.add(line, line % 3 == 0 ? Rule.INFO + ": note " + line : Rule.ERROR + ": error " + line);
+
+		assertEquals(13, log.size());
+		assertEquals("Input file = test.txt", log.get(0).message);
+		assertEquals(20, log.getDropped());
+		assertEquals(13, log.getDropped(Rule.ERROR));
+		assertEquals(7, log.getDropped(Rule.INFO));
+
+		log.publish(ConsoleLog.ALL, -1, -1);
+		assertEquals(14, log.getSize());
+		assertEquals("Input file = test.txt", log.getElementAt(0).toString());
+		assertEquals("(20 earlier messages were dropped: 13 errors, 7 info, 0 other)", log.getElementAt(3).toString());
+		assertEquals("   Error: error 20, at line 20", log.getElementAt(4).toString());
+		assertEquals("Info: note 21, at line 21", log.getElementAt(5).toString());
+	}
+
+	@Test
+	public void filters() {
+		ConsoleLog log = new ConsoleLog(100);
+		log.add(-1, "Header");
+		log.pin();
+		for (int line = 0; line < 30; ++line)
+			log.add(line, line % 3 == 0 ? Rule.INFO + ": note " + line : Rule.ERROR + ": error " + line);
+
+		log.publish(ConsoleLog.ERRORS, 10, 19);
+		assertEquals(7, log.getSize());
+		assertEquals(10, log.getElementAt(0).lineNumber);
+
+		log.publish(ConsoleLog.INFO, -1, -1);
+		assertEquals(10, log.getSize());
+
+		log.clear();
+		log.publish(ConsoleLog.ALL, -1, -1);
+		assertEquals(0, log.getSize());
+		assertEquals(0, log.getDropped());
+	}
+}
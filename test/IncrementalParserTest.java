@@ -0,0 +1,152 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ *  updateText() has to end up where setText() of the whole text ends up:
+ *  a generated script is edited many times at random places, and after every edit
+ *  the diagnostics, notes, log and tree of the edited parser are compared to a parser that read the text from scratch.
+ *  The same goes for a parser that took over the tree of an earlier result of the text.
+ */
+public class IncrementalParserTest {
+
+	private static final int LINES = 2000;
+	private static final int EDITS = 200;
+
+	@Test
+	public void editsMatchFullAnalysis() {
+		checkEdits(7, 0.1);
+	}
+
+	@Test
+	public void editsMatchFullAnalysisOfCleanScript() {
+		checkEdits(11, 0);
+	}
+
+	// A cached result taken over by the parser: the same findings, and its nodes and layout are kept
+	@Test
+	public void earlierResultIsTakenOver() {
+		ScriptGenerator generator = new ScriptGenerator(5);
+		generator.setErrors(0.1);
+		LineBuffer text = new LineBuffer(generator.generate(LINES));
+
+		Parser first = new Parser();
+		first.setText(text);
+		AnalysisResult earlier = first.snapshot();
+
+		Parser parser = new Parser();
+		parser.setText(text, earlier);
+		AnalysisResult result = parser.snapshot();
+		assertSame(earlier.getLayout(), result.getLayout());
+		assertSame(earlier.getPool(), result.getPool());
+		assertEquals(dump(first), dump(parser));
+
+		// A result of another text isn't taken
+		List<String> other = new ArrayList<String>(generator.generate(LINES));
+		parser.setText(new LineBuffer(other), earlier);
+		assertNotSame(earlier.getLayout(), parser.snapshot().getLayout());
+	}
+
+	// A file opened in the editor and edited once: the edit alone is reported, the parser keeps its tree
+	@Test
+	public void firstEditAfterLoadKeepsTree() throws Exception {
+		List<String> text = new ArrayList<String>(new ScriptGenerator(13).generate(LINES));
+		PscriptDocument document = PscriptDocument.load(new LineBuffer(text).toString());
+		Parser parser = new Parser();
+		parser.setText(new LineBuffer(text));
+		List<Node> pool = parser.getPool();
+
+		int line = LINES / 2;
+		while (Lexer.tokenize(text.get(line)).getKind() == ScriptLine.LABEL || text.get(line).contains("goto") || text.get(line).isEmpty())
+			++line;
+		int offset = document.getDefaultRootElement().getElement(line).getStartOffset();
+		document.insertString(offset, "x", null);
+		text.set(line, "x" + text.get(line));
+
+		ChangedLines changed = document.takeChangedLines();
+		assertEquals(line, changed.getStart());
+		assertEquals(line, changed.getOldEnd());
+		assertEquals(line, changed.getNewEnd());
+		parser.updateText(text, changed.getStart() + 1, changed.getOldEnd() + 1, changed.getNewEnd() + 1);
+		assertSame(pool, parser.getPool());
+	}
+
+	// A typo fixed in what an NPC says doesn't change the tree, its nodes are kept
+	@Test
+	public void speechEditKeepsTree() {
+		List<String> text = new ArrayList<String>(new ScriptGenerator(17).generate(LINES));
+		Parser parser = new Parser();
+		parser.setText(new LineBuffer(text));
+		List<Node> pool = parser.getPool();
+
+		int line = LINES / 2;
+		while (Lexer.tokenize(text.get(line)).getKind() != ScriptLine.SPEECH)
+			++line;
+		text.set(line, text.get(line) + " please");
+		parser.updateText(text, line + 1, line + 1, line + 1);
+		assertSame(pool, parser.getPool());
+	}
+
+	private static void checkEdits(long seed, double errors) {
+		ScriptGenerator generator = new ScriptGenerator(seed);
+		generator.setErrors(errors);
+		List<String> text = generator.generate(LINES);
+		List<String> replacements = generator.generate(100); // lines pasted into the script
+		Random random = new Random(seed);
+
+		Parser edited = new Parser();
+		edited.setLayoutNeeded(false);
+		edited.setText(text);
+
+		for (int edit = 0; edit < EDITS; ++edit) {
+			List<String> next = new ArrayList<String>(text);
+			int first = random.nextInt(next.size()) + 1;
+			int removed = random.nextInt(3), added = random.nextInt(3);
+			for (int i = 0; i < removed && first - 1 < next.size(); ++i)
+				next.remove(first - 1);
+			for (int i = 0; i < added; ++i)
+				next.add(Math.min(first - 1, next.size()), replacements.get(random.nextInt(replacements.size())));
+
+			// Range of the edit the way PscriptDocument reports it
+			int oldLast = first + removed - 1, newLast = first + added - 1;
+			if (oldLast > text.size()) {
+				oldLast = text.size();
+				newLast = oldLast + next.size() - text.size();
+			}
+			edited.updateText(next, first, oldLast, newLast);
+			text = next;
+
+			Parser full = new Parser();
+			full.setLayoutNeeded(false);
+			full.setText(text);
+			assertEquals(dump(full), dump(edited), "after edit " + edit + " at line " + first);
+		}
+	}
+
+	// Everything the analysis found, as text, so a failure shows what is different
+	private static String dump(Parser parser) {
+		StringBuilder dump = new StringBuilder();
+		for (Map.Entry<Integer, List<Diagnostic>> entry : parser.Errors.entrySet())
+			for (Diagnostic diagnostic : entry.getValue())
+				dump.append(entry.getKey()).append(" (").append(diagnostic.getLine()).append(") ").append(diagnostic.getRuleId())
+						.append(' ').append(diagnostic.getStartColumn()).append('-').append(diagnostic.getEndColumn())
+						.append(' ').append(diagnostic).append('\n');
+		dump.append(parser.Notes).append('\n');
+		for (String line : parser.Log)
+			dump.append(line).append('\n');
+		for (Node node : parser.getPool()) {
+			dump.append(node.getLabel()).append(' ').append(node.getFirstLine()).append('-').append(node.getLastLine()).append(" ->");
+			for (Node child : node.getChildren())
+				dump.append(' ').append(child.getLabel());
+			dump.append('\n');
+		}
+		return dump.toString();
+	}
+}
@@ -0,0 +1,99 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ *  buildTree resolves jumps through an index of labels. The tree has to be the one the old scan made:
+ *  every jump of a node looks for the last node of the pool with that label,
+ *  a jump to no label is an unknown-label error and a label defined again is a duplicate.
+ */
+public class LabelIndexTest {
+
+	@Test
+	public void generatedScripts() {
+		for (long seed = 1; seed <= 10; ++seed) {
+			ScriptGenerator generator = new ScriptGenerator(seed);
+			generator.setErrors(seed % 2 == 0 ? 0.1 : 0);
+			generator.setCycles(0.3);
+			check(generator.generate(2000));
+		}
+	}
+
+	// Labels copied to other places of the script, a jump to one of them goes to the last copy
+	@Test
+	public void duplicatedLabels() {
+		ScriptGenerator generator = new ScriptGenerator(3);
+		List<String> text = new ArrayList<String>(generator.generate(2000));
+		Random random = new Random(3);
+		for (int copies = 0; copies < 30; ++copies) {
+			int from = random.nextInt(text.size());
+			while (Lexer.tokenize(text.get(from)).getKind() != ScriptLine.LABEL)
+				from = (from + 1) % text.size();
+			text.add(random.nextInt(text.size()), text.get(from));
+		}
+		check(text);
+	}
+
+	private static void check(List<String> text) {
+		Parser parser = new Parser();
+		parser.setLayoutNeeded(false);
+		parser.setText(text);
+		List<Node> pool = parser.getPool();
+		assertTrue(pool.size() > 1);
+
+		TreeSet<Integer> unknown = new TreeSet<Integer>(), duplicates = new TreeSet<Integer>();
+		List<String> defined = new ArrayList<String>();
+		for (Node node : pool) {
+			if (defined.contains(node.getLabel()))
+				duplicates.add(node.getFirstLine());
+			defined.add(node.getLabel());
+		}
+
+		// The tree is built up to the first node without an exit, as buildTree always did
+		TreeSet<Integer> noExit = linesOf(parser, "no-exit");
+		for (Node node : pool) {
+			List<String> children = new ArrayList<String>();
+			for (int line = node.getFirstLine(); line <= node.getLastLine(); ++line) {
+				String label = Lexer.tokenize(text.get(line - 1)).getJumpTarget();
+				if (label == null)
+					continue;
+				Node child = null;
+				for (Node other : pool)
+					if (other.getLabel().equals("[" + label + "]"))
+						child = other;
+				if (child == null) {
+					if (!(label.equals("END") || label.equals("BEGINNING")))
+						unknown.add(line);
+				}
+				else if (!children.contains(child.getLabel() + " " + child.getFirstLine()))
+					children.add(child.getLabel() + " " + child.getFirstLine());
+			}
+
+			List<String> linked = new ArrayList<String>();
+			for (Node child : node.getChildren())
+				linked.add(child.getLabel() + " " + child.getFirstLine());
+			assertEquals(children, linked, "children of " + node.getLabel() + " at line " + node.getFirstLine());
+			if (noExit.contains(node.getFirstLine()))
+				break;
+		}
+
+		assertEquals(unknown, linesOf(parser, "unknown-label"));
+		assertEquals(duplicates, linesOf(parser, "duplicate-label"));
+	}
+
+	private static TreeSet<Integer> linesOf(Parser parser, String ruleId) {
+		TreeSet<Integer> lines = new TreeSet<Integer>();
+		for (Map.Entry<Integer, List<Diagnostic>> entry : parser.Errors.entrySet())
+			for (Diagnostic diagnostic : entry.getValue())
+				if (diagnostic.getRuleId().equals(ruleId))
+					lines.add(entry.getKey());
+		return lines;
+	}
+}
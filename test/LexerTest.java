@@ -0,0 +1,126 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/*
+ *  The Lexer replaced regular expressions that classified lines and picked their parts.
+ *  Those expressions are kept here as they were, and every line of generated scripts (with errors in them)
+ *  and of the introduction has to be classified the same way by the tokens.
+ */
+public class LexerTest {
+
+	private static final Pattern LABEL = Pattern.compile("^\\[\\w+\\]");
+	private static final Pattern MISSING_LABEL = Pattern.compile(":(\\w+)$");
+	private static final Pattern JUMP = Pattern.compile(".+:(\\w+)");
+	private static final Pattern PIPES = Pattern.compile("\\|(.*\\|)?");
+	private static final Pattern COMMAND = Pattern.compile("^[?*](.+)?");
+	private static final Pattern SPEAKER = Pattern.compile("^([\\w\\s]+)( \\(\\w+\\))?:.*");
+	private static final String[] VARIABLES = {"$PLAYERNAME", "$PLAYERGENDER", "$PLAYERRACE"};
+	private static final Pattern[] VARIABLE_CASES = {
+			Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Nn][Aa][Mm][Ee]"),
+			Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Gg][Ee][Nn][Dd][Ee][Rr]"),
+			Pattern.compile("\\$[Pp][Ll][Aa][Yy][Ee][Rr][Rr][Aa][Cc][Ee]")};
+
+	@Test
+	public void generatedScripts() {
+		for (long seed = 1; seed <= 20; ++seed) {
+			ScriptGenerator generator = new ScriptGenerator(seed);
+			generator.setErrors(seed % 2 == 0 ? 0.2 : 0);
+			for (String line : generator.generate(1000))
+				check(line);
+		}
+	}
+
+	@Test
+	public void introduction() throws IOException {
+		for (String line : Parser.readLines(getClass().getResourceAsStream("/Introduction")))
+			check(line);
+	}
+
+	@Test
+	public void edgeCases() {
+		String[] lines = {"", "   ", "# comment", "*", "?", "* ", "> |", "> |x| Yes :A", "> |x Yes :A", "[A] # x", "[A]x",
+				"Pony: hi", "Pony (happy): hi: there", "P: x", "text", "* goto END # c", "* goto  END", "goto END", ":A",
+				"> Yes :A:B", "* say $playername$PlayerRace", "x#", "\t* giveitem 1 1\t"};
+		for (String line : lines)
+			check(line);
+	}
+
+	private static void check(String line) {
+		ScriptLine lexed = Lexer.tokenize(line);
+		String code = stripComment(line);
+		String message = "'" + line + "'";
+
+		assertEquals(code, lexed.getCode(), message);
+		assertEquals(oldKind(line, code), kindOf(lexed), message);
+
+		if (code.startsWith(">") || code.startsWith("?")) {
+			Matcher m = MISSING_LABEL.matcher(code);
+			assertEquals(m.find() ? m.group(1) : null, lexed.getLabelTarget(), message);
+		}
+
+		Matcher jump = JUMP.matcher(code.replace("goto ", ":"));
+		assertEquals(jump.matches() ? jump.group(1) : null, lexed.getJumpTarget(), message);
+
+		if (code.startsWith(">")) {
+			Matcher m = PIPES.matcher(code);
+			assertEquals(m.find() && m.group(1) == null, lexed.count(ScriptLine.Token.PIPE) == 1, message);
+		}
+
+		Matcher command = COMMAND.matcher(code);
+		if (command.find())
+			assertEquals(command.group(1) == null, lexed.getTokens().size() == 1, message);
+
+		for (int i = 0; i < VARIABLES.length; ++i)
+			assertEquals(VARIABLE_CASES[i].matcher(code).find(), lexed.findVariable(VARIABLES[i]) != null, message);
+
+		if (SPEAKER.matcher(code).matches() && code.indexOf(':') == code.lastIndexOf(':') && code.indexOf(':') >= 2)
+			assertEquals(code.substring(0, code.indexOf(':')), lexed.getSpeaker(), message);
+	}
+
+	// RuleSet.stripComment(), gone with the Lexer
+	private static String stripComment(String line) {
+		int comment = line.indexOf('#');
+		return comment == -1 ? line.trim() : line.substring(0, comment).trim();
+	}
+
+	// The way the Parser told lines apart before the Lexer
+	private static String oldKind(String line, String code) {
+		if (code.isEmpty())
+			return line.indexOf('#') == -1 ? "empty" : "comment";
+		if (code.startsWith("*"))
+			return "command";
+		if (code.startsWith("?"))
+			return "condition";
+		if (code.startsWith(">"))
+			return "response";
+		if (LABEL.matcher(code).matches())
+			return "label";
+		return "other";
+	}
+
+	private static String kindOf(ScriptLine line) {
+		switch (line.getKind()) {
+		case ScriptLine.EMPTY:
+			return "empty";
+		case ScriptLine.COMMENT:
+			return "comment";
+		case ScriptLine.COMMAND:
+			return "command";
+		case ScriptLine.CONDITION:
+			return "condition";
+		case ScriptLine.RESPONSE:
+			return "response";
+		case ScriptLine.LABEL:
+			return "label";
+		default:
+			return "other"; // speech and text were told apart by each check on its own
+		}
+	}
+}